@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import com.github.megatronking.stringfog.Base64;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The base64 decoding of the values in base64 mode: into a new array of the exact size, or into a
+ * buffer of the caller like the fused decryption does.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 16:20
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64DecodeBenchmark {
+
+    @Param({"16", "128", "1024"})
+    public int length;
+
+    private String mValue;
+    private byte[] mBuffer;
+
+    @Setup
+    public void setup() {
+        byte[] value = new byte[length];
+        new Random(length).nextBytes(value);
+        mValue = new String(Base64.encode(value, Base64.DEFAULT));
+        mBuffer = new byte[length + 4];
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.decode(mValue, Base64.DEFAULT);
+    }
+
+    @Benchmark
+    public int decodeInto() {
+        return Base64.decode(mValue, Base64.DEFAULT, mBuffer, 0);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] decodeContended() {
+        return Base64.decode(mValue, Base64.DEFAULT);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import com.github.megatronking.stringfog.Base64;
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.StringFogDecrypter;
+import com.github.megatronking.stringfog.xor.StringFogImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the base64 mode decryption of the generated <code>StringFog</code> class: decoding the
+ * value and key with {@link Base64} before the decryption, or decrypting them in one pass with
+ * {@link StringFogDecrypter}. Run with <code>-prof gc</code> to see the allocation rate.
+ *
+ * @author Megatron King
+ * @since 2023/6/14 22:30
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64DecryptBenchmark {
+
+    @Param({"16", "128", "1024"})
+    public int length;
+
+    private final IStringFog mStringFog = new StringFogImpl();
+
+    private String mValue;
+    private String mKey;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        byte[] key = new byte[8];
+        random.nextBytes(key);
+        mKey = new String(Base64.encode(key, Base64.DEFAULT));
+        mValue = new String(Base64.encode(mStringFog.encrypt(builder.toString(), key),
+                Base64.DEFAULT));
+    }
+
+    @Benchmark
+    public String decode() {
+        return mStringFog.decrypt(Base64.decode(mValue, Base64.DEFAULT),
+                Base64.decode(mKey, Base64.DEFAULT));
+    }
+
+    @Benchmark
+    public String fused() {
+        return StringFogDecrypter.decrypt(mStringFog, mValue, mKey);
+    }
+
+}
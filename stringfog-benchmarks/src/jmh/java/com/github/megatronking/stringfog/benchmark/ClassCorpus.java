@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Random;
+
+/**
+ * A synthetic corpus of application classes. Each class has a few static final String constants
+ * and methods which load the strings, the count of the strings in a method is the string density.
+ * The classes and strings are the same for the same seed, so the runs are comparable.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 10:16
+ */
+/* package */ final class ClassCorpus {
+
+    private static final String PACKAGE = "com/github/megatronking/stringfog/benchmark/corpus/";
+    private static final String STRING_DESC = "Ljava/lang/String;";
+
+    private ClassCorpus() {
+    }
+
+    /**
+     * Generate the classes of the corpus.
+     *
+     * @param classes The count of the classes.
+     * @param density The count of the strings in each method.
+     * @param seed The seed of the class shapes and the strings.
+     * @return The class files.
+     */
+    /* package */ static byte[][] generate(int classes, int density, long seed) {
+        Random random = new Random(seed);
+        byte[][] corpus = new byte[classes][];
+        for (int i = 0; i < classes; i++) {
+            // The real classes vary a lot in size.
+            corpus[i] = generateClass(className(i), 1 + random.nextInt(8), density, random);
+        }
+        return corpus;
+    }
+
+    /* package */ static String className(int index) {
+        return PACKAGE + "Class" + index;
+    }
+
+    private static byte[] generateClass(String className, int methods, int density,
+                                        Random random) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null,
+                "java/lang/Object", null);
+        int constants = density / 4;
+        for (int i = 0; i < constants; i++) {
+            writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                    "CONSTANT_" + i, STRING_DESC, null, randomString(random)).visitEnd();
+        }
+        for (int i = 0; i < methods; i++) {
+            MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                    "method" + i, "(Ljava/lang/StringBuilder;)V", null, null);
+            mv.visitCode();
+            for (int j = 0; j < density; j++) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitLdcInsn(randomString(random));
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+                mv.visitInsn(Opcodes.POP);
+            }
+            // Some code without strings.
+            for (int j = 0; j < 8; j++) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitIntInsn(Opcodes.BIPUSH, j);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(I)Ljava/lang/StringBuilder;", false);
+                mv.visitInsn(Opcodes.POP);
+            }
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static String randomString(Random random) {
+        // Most of the strings are short, like keys, tags and messages.
+        int length = 4 + random.nextInt(random.nextInt(8) == 0 ? 256 : 32);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) (' ' + random.nextInt(95)));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.plugin.ClassVisitorFactory;
+import com.github.megatronking.stringfog.plugin.PackageMatcher;
+import com.github.megatronking.stringfog.plugin.StringFogMode;
+import com.github.megatronking.stringfog.plugin.WhiteLists;
+import com.github.megatronking.stringfog.plugin.kg.HardCodeKeyGenerator;
+import com.github.megatronking.stringfog.xor.StringFogImpl;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transform a generated constant class like <code>R</code> or API key holders, with thousands of
+ * static final String fields. Most of the fields are constant values and every fourth field of
+ * the first {@value #ASSIGNED_FIELDS} is assigned in &lt;clinit&gt;, a method loads every value
+ * again, so the fields are looked up by name and by value.
+ * The time should grow linearly with the count of the constants in both of the modes.
+ *
+ * @author Megatron King
+ * @since 2023/6/30 11:20
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConstantClassTransformBenchmark {
+
+    private static final String CLASS_NAME = "com/github/megatronking/stringfog/benchmark/Constants";
+    // The fields which may be assigned in <clinit>.
+    private static final int ASSIGNED_FIELDS = 512;
+
+    @Param({"100", "1000", "10000"})
+    public int constants;
+
+    @Param({"base64", "bytes"})
+    public String mode;
+
+    private final IStringFog mStringFog = new StringFogImpl();
+    private final PackageMatcher mFogPackages = PackageMatcher.compile(null);
+    private final WhiteLists mWhiteLists = WhiteLists.compile(null);
+    // A shared key keeps the constant pool of the transformed class under the 64K entries limit.
+    private final HardCodeKeyGenerator mKeyGenerator = new HardCodeKeyGenerator("StringFog");
+
+    private StringFogMode mMode;
+    private byte[] mClassBytes;
+
+    @Setup
+    public void setup() {
+        mMode = StringFogMode.valueOf(mode);
+        mClassBytes = generateConstantClass(constants);
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        ClassReader reader = new ClassReader(mClassBytes);
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor visitor = ClassVisitorFactory.create(mStringFog, null, mFogPackages,
+                mWhiteLists, mKeyGenerator, null, null, "com.github.megatronking.stringfog.StringFog",
+                CLASS_NAME.replace('/', '.'), mMode, false, null, false, false,
+                writer);
+        reader.accept(visitor, 0);
+        return writer.toByteArray();
+    }
+
+    /* package */ static byte[] generateConstantClass(int constants) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                CLASS_NAME, null, "java/lang/Object", null);
+        for (int i = 0; i < constants; i++) {
+            // The assignments are encrypted in place, keep <clinit> under the 64KB limit even in
+            // bytes mode.
+            writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                    fieldName(i), "Ljava/lang/String;", null, isAssigned(i) ? null : value(i))
+                    .visitEnd();
+        }
+        MethodVisitor clinit = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        clinit.visitCode();
+        for (int i = 3; i < Math.min(constants, ASSIGNED_FIELDS); i += 4) {
+            clinit.visitLdcInsn(value(i));
+            clinit.visitFieldInsn(Opcodes.PUTSTATIC, CLASS_NAME, fieldName(i), "Ljava/lang/String;");
+        }
+        clinit.visitInsn(Opcodes.RETURN);
+        clinit.visitMaxs(0, 0);
+        clinit.visitEnd();
+        MethodVisitor values = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                "values", "()V", null, null);
+        values.visitCode();
+        for (int i = 0; i < constants; i++) {
+            values.visitLdcInsn(value(i));
+            values.visitInsn(Opcodes.POP);
+        }
+        values.visitInsn(Opcodes.RETURN);
+        values.visitMaxs(0, 0);
+        values.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static boolean isAssigned(int index) {
+        return index < ASSIGNED_FIELDS && index % 4 == 3;
+    }
+
+    private static String fieldName(int index) {
+        return "KEY_" + index;
+    }
+
+    private static String value(int index) {
+        return "constant value " + index;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.plugin.StringFogClassGenerator;
+import com.github.megatronking.stringfog.plugin.StringFogMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Generate and compile the <code>StringFog</code> class the same as the gradle plugin, so the
+ * benchmarks measure the real decrypt path of a call site. The compile needs a JDK, the StringFog
+ * interface and the implementation are found in the class path of the benchmarks.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 15:20
+ */
+/* package */ final class GeneratedStringFog {
+
+    private static final String PACKAGE = "com.github.megatronking.stringfog.benchmark.generated";
+    private static final String CLASS_NAME = "StringFog";
+    // The site id of the cached call site.
+    private static final long SITE_ID = 1L;
+
+    private GeneratedStringFog() {
+    }
+
+    /**
+     * Create an implementation of the StringFog by its class name, so the implementations of the
+     * ext modules are measured by the same benchmarks.
+     */
+    /* package */ static IStringFog newImplementation(String implementation) throws Exception {
+        return (IStringFog) Class.forName(implementation).getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Compile the StringFog class and get its decrypt method.
+     *
+     * @return The handle of <code>String decrypt(Object value, Object key)</code>, the value and
+     * key are strings in base64 mode and byte arrays in bytes mode.
+     */
+    /* package */ static MethodHandle compileDecrypt(String implementation, StringFogMode mode,
+                                                    boolean cache) throws Exception {
+        Path dir = Files.createTempDirectory("stringfog-benchmark");
+        File source = dir.resolve("src").resolve(PACKAGE.replace('.', File.separatorChar))
+                .resolve(CLASS_NAME + ".java").toFile();
+        StringFogClassGenerator.generate(source, PACKAGE, CLASS_NAME, implementation, mode, cache,
+                0, false, null, null);
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No java compiler found, run the benchmarks with a JDK.");
+        }
+        int result = compiler.run(null, null, null, "-nowarn", "-classpath",
+                System.getProperty("java.class.path"), "-d", classes.toString(),
+                source.getAbsolutePath());
+        if (result != 0) {
+            throw new IllegalStateException("Compile " + source + " failed.");
+        }
+        Class<?> clazz = Class.forName(PACKAGE + "." + CLASS_NAME, true, new URLClassLoader(
+                new URL[] {classes.toUri().toURL()},
+                GeneratedStringFog.class.getClassLoader()));
+        deleteOnExit(dir);
+
+        Class<?> valueType = mode == StringFogMode.bytes ? byte[].class : String.class;
+        MethodHandle decrypt;
+        if (cache) {
+            decrypt = MethodHandles.insertArguments(MethodHandles.publicLookup().findStatic(clazz,
+                    "decrypt", MethodType.methodType(String.class, long.class, valueType,
+                            valueType)), 0, SITE_ID);
+        } else {
+            decrypt = MethodHandles.publicLookup().findStatic(clazz, "decrypt",
+                    MethodType.methodType(String.class, valueType, valueType));
+        }
+        return decrypt.asType(MethodType.methodType(String.class, Object.class, Object.class));
+    }
+
+    private static void deleteOnExit(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            // The files registered later are deleted first, the children are walked later.
+            paths.forEach(path -> path.toFile().deleteOnExit());
+        }
+    }
+
+}
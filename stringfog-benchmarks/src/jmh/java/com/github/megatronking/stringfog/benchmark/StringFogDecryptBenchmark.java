@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import com.github.megatronking.stringfog.Base64;
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.plugin.StringFogMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a call site at runtime: the <code>StringFog.decrypt</code> of the class generated
+ * for base64 or bytes mode, with or without the call site cache. The class is compiled in the
+ * setup and called by a method handle, which adds a few nanoseconds to every mode the same. The
+ * contended variant shares the class, its thread buffers and cache between the threads. A call
+ * site of bytes mode creates new arrays in every call, the implementation may decrypt them in
+ * place, so the benchmarks copy the arrays too.
+ *
+ * Run with <code>-prof gc</code> to see the allocation per call, and with
+ * <code>-p implementation=...</code> to measure another implementation of IStringFog.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 15:42
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringFogDecryptBenchmark {
+
+    @Param({"com.github.megatronking.stringfog.xor.StringFogImpl"})
+    public String implementation;
+
+    @Param({"base64", "bytes"})
+    public String mode;
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    @Param({"16", "128", "1024"})
+    public int length;
+
+    private MethodHandle mDecrypt;
+    private boolean mBytes;
+    private Object mValue;
+    private Object mKey;
+
+    @Setup
+    public void setup() throws Throwable {
+        IStringFog stringFog = GeneratedStringFog.newImplementation(implementation);
+        StringFogMode stringFogMode = StringFogMode.valueOf(mode);
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        byte[] key = new byte[8];
+        random.nextBytes(key);
+        byte[] value = stringFog.encrypt(builder.toString(), key);
+        mBytes = stringFogMode == StringFogMode.bytes;
+        if (mBytes) {
+            mValue = value;
+            mKey = key;
+        } else {
+            mValue = new String(Base64.encode(value, Base64.DEFAULT));
+            mKey = new String(Base64.encode(key, Base64.DEFAULT));
+        }
+        mDecrypt = GeneratedStringFog.compileDecrypt(implementation, stringFogMode, cache);
+        if (!builder.toString().equals(callSite()) || !builder.toString().equals(callSite())) {
+            throw new IllegalStateException("The decrypted string is not the original one.");
+        }
+    }
+
+    @Benchmark
+    public String decrypt() throws Throwable {
+        return callSite();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String decryptContended() throws Throwable {
+        return callSite();
+    }
+
+    private String callSite() throws Throwable {
+        if (mBytes) {
+            return (String) mDecrypt.invokeExact((Object) ((byte[]) mValue).clone(),
+                    (Object) ((byte[]) mKey).clone());
+        }
+        return (String) mDecrypt.invokeExact(mValue, mKey);
+    }
+
+}
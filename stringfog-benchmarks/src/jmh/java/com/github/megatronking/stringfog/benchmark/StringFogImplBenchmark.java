@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import com.github.megatronking.stringfog.IStringFog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decryption of an implementation of IStringFog alone, at varying string and key lengths. The
+ * array decryption is used by the bytes mode, the range decryption by the fused base64, compact
+ * and master key paths. The implementation is a parameter, so the ext modules are compared by
+ * <code>-p implementation=...</code> with their modules in the jmh dependencies. The value is
+ * copied in every call like a call site does, an implementation may decrypt it in place.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 16:05
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringFogImplBenchmark {
+
+    @Param({"com.github.megatronking.stringfog.xor.StringFogImpl"})
+    public String implementation;
+
+    @Param({"16", "128", "1024"})
+    public int length;
+
+    @Param({"4", "8", "32"})
+    public int keyLength;
+
+    private IStringFog mStringFog;
+    private byte[] mValue;
+    private byte[] mKey;
+
+    @Setup
+    public void setup() throws Exception {
+        mStringFog = GeneratedStringFog.newImplementation(implementation);
+        Random random = new Random(length * 31L + keyLength);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        mKey = new byte[keyLength];
+        random.nextBytes(mKey);
+        mValue = mStringFog.encrypt(builder.toString(), mKey);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return mStringFog.decrypt(mValue.clone(), mKey);
+    }
+
+    @Benchmark
+    public String decryptRange() {
+        byte[] value = mValue.clone();
+        return mStringFog.decrypt(value, 0, value.length, mKey, 0, mKey.length);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String decryptContended() {
+        return mStringFog.decrypt(mValue.clone(), mKey);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.benchmark;
+
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.plugin.ClassVisitorFactory;
+import com.github.megatronking.stringfog.plugin.PackageMatcher;
+import com.github.megatronking.stringfog.plugin.StringFogMode;
+import com.github.megatronking.stringfog.plugin.WhiteLists;
+import com.github.megatronking.stringfog.plugin.kg.DeterministicKeyGenerator;
+import com.github.megatronking.stringfog.xor.StringFogImpl;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The build time throughput of the transform over a synthetic corpus of classes, see
+ * {@link ClassCorpus}. An operation transforms one class, so the score is the classes per second,
+ * the <code>bytes</code> counter is the input class bytes per second, and the
+ * <code>gc.alloc.rate.norm</code> of <code>-prof gc</code> is the allocation per class. The
+ * parallel variant runs on the threads like the workers of the gradle transform.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 10:40
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformThroughputBenchmark {
+
+    private static final int CLASSES = 256;
+
+    @Param({"0", "4", "32"})
+    public int density;
+
+    @Param({"base64", "bytes", "compact"})
+    public String mode;
+
+    private final IStringFog mStringFog = new StringFogImpl();
+    private final PackageMatcher mFogPackages = PackageMatcher.compile(null);
+    private final WhiteLists mWhiteLists = WhiteLists.compile(null);
+    private final DeterministicKeyGenerator mKeyGenerator = new DeterministicKeyGenerator();
+
+    private StringFogMode mMode;
+    private byte[][] mClasses;
+    private String[] mClassNames;
+
+    @Setup
+    public void setup() {
+        mMode = StringFogMode.valueOf(mode);
+        mClasses = ClassCorpus.generate(CLASSES, density, 42);
+        mClassNames = new String[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            mClassNames[i] = ClassCorpus.className(i).replace('/', '.');
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public long bytes;
+
+        private int mIndex;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+
+        private int next() {
+            int index = mIndex;
+            mIndex = (index + 1) % CLASSES;
+            return index;
+        }
+
+    }
+
+    @Benchmark
+    public byte[] transform(Counters counters) {
+        return transform(counters.next(), counters);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] transformParallel(Counters counters) {
+        return transform(counters.next(), counters);
+    }
+
+    private byte[] transform(int index, Counters counters) {
+        byte[] bytes = mClasses[index];
+        counters.bytes += bytes.length;
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor visitor = ClassVisitorFactory.create(mStringFog, null, mFogPackages,
+                mWhiteLists, mKeyGenerator, null, null,
+                "com.github.megatronking.stringfog.StringFog", mClassNames[index], mMode, false,
+                null, false, false, writer);
+        reader.accept(visitor, 0);
+        return writer.toByteArray();
+    }
+
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Transform the classes of jars, aars and class directories on a fork/join pool. The entries are
+ * read on demand from the central directory of the archive, so an archive is never buffered as a
+ * whole. The classes in flight are bounded by the count and the bytes, and the entries are written
+ * in the order of the input, so the output is the same in every run.
+ *
+ * @author Megatron King
+ * @since 2023/7/3 10:51
+ */
+/* package */ final class ArchiveTransformer {
+
+    private static final String JAR_SUFFIX = ".jar";
+    private static final String AAR_SUFFIX = ".aar";
+    // The jars in an aar.
+    private static final String AAR_CLASSES_JAR = "classes.jar";
+    private static final String AAR_LIBS_PREFIX = "libs/";
+    // The size of an entry which is not recorded in the archive.
+    private static final long UNKNOWN_ENTRY_SIZE = 64 * 1024;
+
+    private final ClassTransformer mTransformer;
+    private final ForkJoinPool mPool;
+    private final long mMaxInFlightBytes;
+    private final int mMaxInFlightClasses;
+
+    private final AtomicInteger mClassCount = new AtomicInteger();
+    private final AtomicLong mClassBytes = new AtomicLong();
+
+    /* package */ ArchiveTransformer(ClassTransformer transformer, ForkJoinPool pool,
+                                     long maxInFlightBytes) {
+        this.mTransformer = transformer;
+        this.mPool = pool;
+        this.mMaxInFlightBytes = maxInFlightBytes;
+        // Keep the workers busy while the head entry is being written.
+        this.mMaxInFlightClasses = pool.getParallelism() * 4;
+    }
+
+    /* package */ int getClassCount() {
+        return mClassCount.get();
+    }
+
+    /* package */ long getClassBytes() {
+        return mClassBytes.get();
+    }
+
+    /* package */ static boolean isSupported(File input) {
+        String name = input.getName();
+        return input.isDirectory() || name.endsWith(JAR_SUFFIX) || name.endsWith(AAR_SUFFIX);
+    }
+
+    /**
+     * Transform a jar, an aar or a class directory to the output of the same type.
+     *
+     * @param input The input jar, aar or directory.
+     * @param output The output file or directory.
+     * @throws IOException If failed to read the input or write the output, or a class can not be
+     * transformed.
+     */
+    /* package */ void transform(File input, File output) throws IOException {
+        if (input.isDirectory()) {
+            transformDirectory(input.toPath(), output.toPath());
+        } else if (input.getName().endsWith(AAR_SUFFIX)) {
+            transformAar(input, output);
+        } else {
+            transformJar(input, output);
+        }
+    }
+
+    private void transformJar(File input, File output) throws IOException {
+        try (ZipFile zip = new ZipFile(input);
+             ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(output.toPath()))) {
+            List<Source> sources = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                // The signatures are broken by the transformed classes.
+                if (!isSignatureFile(entry.getName())) {
+                    sources.add(new ZipSource(zip, entry));
+                }
+            }
+            run(sources, new ZipSink(zos));
+        }
+    }
+
+    private void transformAar(File input, File output) throws IOException {
+        try (ZipFile zip = new ZipFile(input);
+             ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(output.toPath()))) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                ZipEntry outEntry = new ZipEntry(name);
+                outEntry.setTime(entry.getTime());
+                zos.putNextEntry(outEntry);
+                if (name.equals(AAR_CLASSES_JAR) || (name.startsWith(AAR_LIBS_PREFIX)
+                        && name.endsWith(JAR_SUFFIX))) {
+                    // The nested jars are extracted to read the entries in random order.
+                    File nestedInput = File.createTempFile("stringfog", JAR_SUFFIX);
+                    File nestedOutput = File.createTempFile("stringfog", JAR_SUFFIX);
+                    try {
+                        try (InputStream is = zip.getInputStream(entry)) {
+                            Files.copy(is, nestedInput.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        }
+                        transformJar(nestedInput, nestedOutput);
+                        Files.copy(nestedOutput.toPath(), zos);
+                    } finally {
+                        Files.deleteIfExists(nestedInput.toPath());
+                        Files.deleteIfExists(nestedOutput.toPath());
+                    }
+                } else if (!entry.isDirectory()) {
+                    try (InputStream is = zip.getInputStream(entry)) {
+                        is.transferTo(zos);
+                    }
+                }
+                zos.closeEntry();
+            }
+        }
+    }
+
+    private void transformDirectory(Path input, Path output) throws IOException {
+        List<Source> sources;
+        try (Stream<Path> paths = Files.walk(input)) {
+            sources = paths.filter(Files::isRegularFile).sorted()
+                    .map(path -> new FileSource(input, path)).collect(Collectors.toList());
+        }
+        Files.createDirectories(output);
+        run(sources, new DirectorySink(output));
+    }
+
+    private void run(List<Source> sources, Sink sink) throws IOException {
+        Deque<Pending> pendings = new ArrayDeque<>();
+        long inFlightBytes = 0;
+        try {
+            for (Source source : sources) {
+                String className = source.isDirectory() ? null :
+                        ClassTransformer.toClassName(source.getName());
+                if (className == null || !mTransformer.isInstrumentable(className)) {
+                    // Copied when it is the head, the content is never held in memory.
+                    pendings.add(new Pending(source, null, 0));
+                } else {
+                    long size = source.getSize() < 0 ? UNKNOWN_ENTRY_SIZE : source.getSize();
+                    while (!pendings.isEmpty() && (pendings.size() >= mMaxInFlightClasses
+                            || inFlightBytes + size > mMaxInFlightBytes)) {
+                        inFlightBytes -= write(pendings.poll(), sink);
+                    }
+                    pendings.add(new Pending(source, mPool.submit(() ->
+                            transform(source, className)), size));
+                    inFlightBytes += size;
+                }
+                while (!pendings.isEmpty() && pendings.peek().isDone()) {
+                    inFlightBytes -= write(pendings.poll(), sink);
+                }
+            }
+            while (!pendings.isEmpty()) {
+                write(pendings.poll(), sink);
+            }
+        } finally {
+            for (Pending pending : pendings) {
+                if (pending.task != null) {
+                    pending.task.cancel(true);
+                }
+            }
+        }
+    }
+
+    private byte[] transform(Source source, String className) throws IOException {
+        byte[] bytes;
+        try (InputStream is = source.open()) {
+            bytes = is.readAllBytes();
+        }
+        mClassCount.incrementAndGet();
+        mClassBytes.addAndGet(bytes.length);
+        return mTransformer.transform(className,
+                ClassTransformer.toVersion(source.getName()), bytes);
+    }
+
+    private long write(Pending pending, Sink sink) throws IOException {
+        if (pending.task == null) {
+            sink.copy(pending.source);
+            return 0;
+        }
+        try {
+            sink.put(pending.source, pending.task.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transform interrupted: " + pending.source.getName());
+        } catch (ExecutionException e) {
+            throw new IOException("Transform " + pending.source.getName() + " failed: "
+                    + e.getCause(), e.getCause());
+        }
+        return pending.size;
+    }
+
+    private static boolean isSignatureFile(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+            return false;
+        }
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA")
+                || name.endsWith(".EC");
+    }
+
+    private static final class Pending {
+
+        private final Source source;
+        private final Future<byte[]> task;
+        private final long size;
+
+        private Pending(Source source, Future<byte[]> task, long size) {
+            this.source = source;
+            this.task = task;
+            this.size = size;
+        }
+
+        private boolean isDone() {
+            return task == null || task.isDone();
+        }
+
+    }
+
+    private interface Source {
+
+        String getName();
+
+        long getSize();
+
+        long getTime();
+
+        boolean isDirectory();
+
+        InputStream open() throws IOException;
+
+    }
+
+    private interface Sink {
+
+        void put(Source source, byte[] bytes) throws IOException;
+
+        void copy(Source source) throws IOException;
+
+    }
+
+    private static final class ZipSource implements Source {
+
+        private final ZipFile mZip;
+        private final ZipEntry mEntry;
+
+        private ZipSource(ZipFile zip, ZipEntry entry) {
+            this.mZip = zip;
+            this.mEntry = entry;
+        }
+
+        @Override
+        public String getName() {
+            return mEntry.getName();
+        }
+
+        @Override
+        public long getSize() {
+            return mEntry.getSize();
+        }
+
+        @Override
+        public long getTime() {
+            return mEntry.getTime();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return mEntry.isDirectory();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            // ZipFile is safe to read the entries on multiple threads.
+            return mZip.getInputStream(mEntry);
+        }
+
+    }
+
+    private static final class FileSource implements Source {
+
+        private final String mName;
+        private final Path mPath;
+
+        private FileSource(Path root, Path path) {
+            this.mName = root.relativize(path).toString().replace(File.separatorChar, '/');
+            this.mPath = path;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public long getSize() {
+            return mPath.toFile().length();
+        }
+
+        @Override
+        public long getTime() {
+            return mPath.toFile().lastModified();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return Files.newInputStream(mPath);
+        }
+
+    }
+
+    private static final class ZipSink implements Sink {
+
+        private final ZipOutputStream mOutput;
+
+        private ZipSink(ZipOutputStream output) {
+            this.mOutput = output;
+        }
+
+        @Override
+        public void put(Source source, byte[] bytes) throws IOException {
+            putNextEntry(source);
+            mOutput.write(bytes);
+            mOutput.closeEntry();
+        }
+
+        @Override
+        public void copy(Source source) throws IOException {
+            putNextEntry(source);
+            if (!source.isDirectory()) {
+                try (InputStream is = source.open()) {
+                    is.transferTo(mOutput);
+                }
+            }
+            mOutput.closeEntry();
+        }
+
+        private void putNextEntry(Source source) throws IOException {
+            ZipEntry entry = new ZipEntry(source.getName());
+            entry.setTime(source.getTime());
+            mOutput.putNextEntry(entry);
+        }
+
+    }
+
+    private static final class DirectorySink implements Sink {
+
+        private final Path mRoot;
+
+        private DirectorySink(Path root) {
+            this.mRoot = root;
+        }
+
+        @Override
+        public void put(Source source, byte[] bytes) throws IOException {
+            Files.write(resolve(source), bytes);
+        }
+
+        @Override
+        public void copy(Source source) throws IOException {
+            try (InputStream is = source.open()) {
+                Files.copy(is, resolve(source), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        private Path resolve(Source source) throws IOException {
+            Path path = mRoot.resolve(source.getName());
+            Files.createDirectories(path.getParent());
+            return path;
+        }
+
+    }
+
+}
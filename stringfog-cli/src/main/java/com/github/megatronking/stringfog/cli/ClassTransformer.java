@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.cli;
+
+import com.github.megatronking.stringfog.IKeyGenerator;
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.plugin.ClassVisitorFactory;
+import com.github.megatronking.stringfog.plugin.PackageMatcher;
+import com.github.megatronking.stringfog.plugin.StringFogMappingCollector;
+import com.github.megatronking.stringfog.plugin.StringFogMode;
+import com.github.megatronking.stringfog.plugin.StringFogProfile;
+import com.github.megatronking.stringfog.plugin.WhiteLists;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Transform a class file by the StringFog class visitor, the same as the gradle plugin does. It
+ * holds no state of a class, so the workers share one transformer.
+ *
+ * @author Megatron King
+ * @since 2023/7/3 10:24
+ */
+/* package */ final class ClassTransformer {
+
+    private static final String CLASS_SUFFIX = ".class";
+    // The classes of the multi-release jars.
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private final IStringFog mStringFogImpl;
+    private final StringFogMappingCollector mMappingCollector;
+    private final PackageMatcher mFogPackages;
+    private final WhiteLists mWhiteLists;
+    private final IKeyGenerator mKeyGenerator;
+    private final byte[] mMasterKey;
+    private final byte[][] mKeyTable;
+    private final String mFogClassName;
+    private final StringFogMode mMode;
+    private final boolean mCache;
+    private final StringFogProfile mProfile;
+    private final boolean mLazy;
+    private final boolean mInstrument;
+
+    /* package */ ClassTransformer(IStringFog stringFogImpl,
+                                   StringFogMappingCollector mappingCollector,
+                                   PackageMatcher fogPackages, WhiteLists whiteLists,
+                                   IKeyGenerator kg, byte[] masterKey, byte[][] keyTable,
+                                   String fogClassName, StringFogMode mode, boolean cache,
+                                   StringFogProfile profile, boolean lazy, boolean instrument) {
+        this.mStringFogImpl = stringFogImpl;
+        this.mMappingCollector = mappingCollector;
+        this.mFogPackages = fogPackages;
+        this.mWhiteLists = whiteLists;
+        this.mKeyGenerator = kg;
+        this.mMasterKey = masterKey;
+        this.mKeyTable = keyTable;
+        this.mFogClassName = fogClassName;
+        this.mMode = mode;
+        this.mCache = cache;
+        this.mProfile = profile;
+        this.mLazy = lazy;
+        this.mInstrument = instrument;
+    }
+
+    /**
+     * Get the java class name of a class file entry.
+     *
+     * @param entryName The entry name in the archive or the relative path in the directory.
+     * @return The java class name, or null if the entry is not a transformable class.
+     */
+    /* package */ static String toClassName(String entryName) {
+        if (!entryName.endsWith(CLASS_SUFFIX)) {
+            return null;
+        }
+        String name = entryName.substring(0, entryName.length() - CLASS_SUFFIX.length());
+        if (name.startsWith(VERSIONS_PREFIX)) {
+            int index = name.indexOf('/', VERSIONS_PREFIX.length());
+            name = index < 0 ? name : name.substring(index + 1);
+        }
+        if (name.endsWith("module-info") || name.endsWith("package-info")) {
+            return null;
+        }
+        return name.replace('/', '.');
+    }
+
+    /**
+     * Get the java version of a class file entry in a multi-release jar.
+     *
+     * @param entryName The entry name in the archive or the relative path in the directory.
+     * @return The version of the entry, or 0 if it is not a versioned entry.
+     */
+    /* package */ static int toVersion(String entryName) {
+        if (!entryName.startsWith(VERSIONS_PREFIX)) {
+            return 0;
+        }
+        int index = entryName.indexOf('/', VERSIONS_PREFIX.length());
+        try {
+            return index < 0 ? 0 : Integer.parseInt(entryName.substring(
+                    VERSIONS_PREFIX.length(), index));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Whether the class should be transformed, the excluded classes are copied as they are. The
+     * fragments are collected in a new directory in every run, an excluded class has none.
+     */
+    /* package */ boolean isInstrumentable(String className) {
+        return ClassVisitorFactory.isInstrumentable(mFogPackages, mWhiteLists, className);
+    }
+
+    /**
+     * Transform a class, the versions of a class in a multi-release jar have their own mapping.
+     *
+     * @param className The java class name.
+     * @param version The version of a versioned entry, or 0.
+     * @param bytes The class file.
+     * @return The transformed class file.
+     */
+    /* package */ byte[] transform(String className, int version, byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        // The visitor writes the frames of the methods it generates, the frames of the other
+        // methods are kept and only the max stack size grows. The constant pool of the reader is
+        // not copied, it holds the plain strings.
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        StringFogMappingCollector mappingCollector = version == 0 || mMappingCollector == null
+                ? mMappingCollector : mMappingCollector.withQualifier("java" + version);
+        ClassVisitor visitor = ClassVisitorFactory.create(mStringFogImpl, mappingCollector,
+                mFogPackages, mWhiteLists, mKeyGenerator, mMasterKey, mKeyTable, mFogClassName,
+                className, mMode, mCache, mProfile, mLazy, mInstrument, writer);
+        reader.accept(visitor, 0);
+        return writer.toByteArray();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compile the generated StringFog class into a jar, the gradle plugin leaves it to the java
+ * compile task of the variant. The StringFog interface and the implementation must be in the
+ * class path.
+ *
+ * @author Megatron King
+ * @since 2023/7/3 14:36
+ */
+/* package */ final class FogClassCompiler {
+
+    private FogClassCompiler() {
+    }
+
+    /* package */ static void compile(File source, String classPath, String release, File outputJar)
+            throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("No java compiler found, run the StringFog with a JDK.");
+        }
+        Path classesDir = Files.createTempDirectory("stringfog-classes");
+        try {
+            StringWriter errors = new StringWriter();
+            try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null,
+                    null, null)) {
+                Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjects(source);
+                List<String> options = Arrays.asList("-nowarn", "--release", release,
+                        "-classpath", classPath, "-d", classesDir.toString());
+                if (!compiler.getTask(errors, fileManager, null, options, null, units).call()) {
+                    throw new IOException("Compile " + source + " failed:\n" + errors);
+                }
+            }
+            writeJar(classesDir, outputJar);
+        } finally {
+            deleteRecursively(classesDir);
+        }
+    }
+
+    private static void writeJar(Path classesDir, File outputJar) throws IOException {
+        List<Path> classes;
+        try (Stream<Path> paths = Files.walk(classesDir)) {
+            classes = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(outputJar.toPath()))) {
+            for (Path path : classes) {
+                zos.putNextEntry(new ZipEntry(classesDir.relativize(path).toString()
+                        .replace(File.separatorChar, '/')));
+                Files.copy(path, zos);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    /* package */ static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            // The children first.
+            paths = stream.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+}
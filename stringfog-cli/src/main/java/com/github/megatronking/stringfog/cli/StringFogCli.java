@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.cli;
+
+import com.github.megatronking.stringfog.IKeyGenerator;
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.StringFogWrapper;
+import com.github.megatronking.stringfog.plugin.PackageMatcher;
+import com.github.megatronking.stringfog.plugin.StringFogClassGenerator;
+import com.github.megatronking.stringfog.plugin.StringFogMappingCollector;
+import com.github.megatronking.stringfog.plugin.StringFogMode;
+import com.github.megatronking.stringfog.plugin.StringFogProfile;
+import com.github.megatronking.stringfog.plugin.WhiteLists;
+import com.github.megatronking.stringfog.plugin.kg.DeterministicKeyGenerator;
+import com.github.megatronking.stringfog.plugin.kg.HardCodeKeyGenerator;
+import com.github.megatronking.stringfog.plugin.kg.RandomKeyGenerator;
+import com.github.megatronking.stringfog.plugin.utils.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Fog the strings of jars, aars and class directories without the Android gradle plugin, e.g. the
+ * jars of JVM services and SDKs. The classes are transformed in parallel, the outputs are written
+ * to the output directory with the same names as the inputs, along with the compiled StringFog
+ * class and the mapping file.
+ *
+ * @author Megatron King
+ * @since 2023/7/3 15:02
+ */
+public final class StringFogCli {
+
+    private static final String FOG_CLASS_NAME = "StringFog";
+    private static final String FOG_CLASS_JAR = "stringfog.jar";
+    private static final String MAPPING_FILE = "stringfog.txt";
+
+    private static final String USAGE = "Usage: stringfog [options] <jar|aar|dir>...\n"
+            + "Options:\n"
+            + "  --implementation <class>  The IStringFog implementation, required.\n"
+            + "  --package <name>          The package of the generated StringFog class, required.\n"
+            + "  --output <dir>            The output directory, required.\n"
+            + "  --mapping <file>          The mapping file, default is <output>/" + MAPPING_FILE + ".\n"
+            + "  --mode <mode>             base64, bytes, compact, table or dynamic, default is base64.\n"
+            + "  --fog-packages <rules>    The comma separated fog packages, default is all.\n"
+            + "  --white-list <names>      The comma separated classes not to fog.\n"
+            + "  --secret <secret>         The secret of the deterministic keys.\n"
+            + "  --hard-code-key <key>     Use a hard-coded key for all the strings.\n"
+            + "  --random-key              Use random keys.\n"
+            + "  --master-key <key>        Derive the keys from a master key at runtime.\n"
+            + "  --cache                   Cache the decrypted strings of the call sites.\n"
+            + "  --cache-size <bytes>      The memory budget of the cache, 0 is a slot cache.\n"
+            + "  --lazy                    Decrypt the static final fields on first access.\n"
+            + "  --instrument              Generate the instrumentation of the decrypt calls.\n"
+            + "  --profile <file>          The profile of the hot call sites, requires --cache.\n"
+            + "  --release <version>       The java release of the StringFog class, default is 11.\n"
+            + "  --threads <count>         The transform threads, default is the processor count.\n"
+            + "  --max-in-flight <mb>      The memory budget of the classes in flight, default is 256.\n"
+            + "  --debug                   Print the debug messages.\n"
+            + "  --help                    Print this message.\n";
+
+    private final List<File> mInputs = new ArrayList<>();
+    private String mImplementation;
+    private String mPackageName;
+    private File mOutputDir;
+    private File mMappingFile;
+    private StringFogMode mMode = StringFogMode.base64;
+    private String[] mFogPackages = new String[0];
+    private String[] mWhiteList = new String[0];
+    private IKeyGenerator mKeyGenerator = new DeterministicKeyGenerator();
+    private byte[] mMasterKey;
+    private boolean mCache;
+    private long mCacheSize;
+    private boolean mLazy;
+    private boolean mInstrument;
+    private File mProfileFile;
+    private String mRelease = "11";
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private long mMaxInFlightBytes = 256L * 1024 * 1024;
+
+    public static void main(String[] args) {
+        StringFogCli cli = new StringFogCli();
+        try {
+            cli.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            cli.run();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("StringFog failed: " + e.getMessage());
+            Log.e(String.valueOf(e));
+            System.exit(1);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                mInputs.add(new File(arg));
+                continue;
+            }
+            switch (arg) {
+                case "--implementation":
+                    mImplementation = value(args, ++i, arg);
+                    break;
+                case "--package":
+                    mPackageName = value(args, ++i, arg);
+                    break;
+                case "--output":
+                    mOutputDir = new File(value(args, ++i, arg));
+                    break;
+                case "--mapping":
+                    mMappingFile = new File(value(args, ++i, arg));
+                    break;
+                case "--mode":
+                    mMode = StringFogMode.valueOf(value(args, ++i, arg));
+                    break;
+                case "--fog-packages":
+                    mFogPackages = value(args, ++i, arg).split(",");
+                    break;
+                case "--white-list":
+                    mWhiteList = value(args, ++i, arg).split(",");
+                    break;
+                case "--secret":
+                    mKeyGenerator = new DeterministicKeyGenerator(value(args, ++i, arg));
+                    break;
+                case "--hard-code-key":
+                    mKeyGenerator = new HardCodeKeyGenerator(value(args, ++i, arg));
+                    break;
+                case "--random-key":
+                    mKeyGenerator = new RandomKeyGenerator();
+                    break;
+                case "--master-key":
+                    mMasterKey = value(args, ++i, arg).getBytes(StandardCharsets.UTF_8);
+                    break;
+                case "--cache":
+                    mCache = true;
+                    break;
+                case "--cache-size":
+                    mCacheSize = Long.parseLong(value(args, ++i, arg));
+                    break;
+                case "--lazy":
+                    mLazy = true;
+                    break;
+                case "--instrument":
+                    mInstrument = true;
+                    break;
+                case "--profile":
+                    mProfileFile = new File(value(args, ++i, arg));
+                    break;
+                case "--release":
+                    mRelease = value(args, ++i, arg);
+                    break;
+                case "--threads":
+                    mThreads = Integer.parseInt(value(args, ++i, arg));
+                    break;
+                case "--max-in-flight":
+                    mMaxInFlightBytes = Long.parseLong(value(args, ++i, arg)) * 1024 * 1024;
+                    break;
+                case "--debug":
+                    Log.setDebug(true);
+                    break;
+                case "--help":
+                    System.out.print(USAGE);
+                    System.exit(0);
+                    return;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (mImplementation == null || mPackageName == null || mOutputDir == null) {
+            throw new IllegalArgumentException("Missing the implementation, package or output.");
+        }
+        if (mInputs.isEmpty()) {
+            throw new IllegalArgumentException("Missing the inputs.");
+        }
+        if (mMasterKey != null && mMasterKey.length == 0) {
+            throw new IllegalArgumentException("The master key is empty.");
+        }
+        if (mProfileFile != null && !mCache) {
+            throw new IllegalArgumentException("The profile requires the cache.");
+        }
+        if (mThreads <= 0 || mMaxInFlightBytes <= 0 || mCacheSize < 0) {
+            throw new IllegalArgumentException("The threads, max in flight and cache size must "
+                    + "be positive.");
+        }
+        Set<String> names = new HashSet<>();
+        names.add(FOG_CLASS_JAR);
+        for (File input : mInputs) {
+            if (!input.exists() || !ArchiveTransformer.isSupported(input)) {
+                throw new IllegalArgumentException("Not a jar, aar or directory: " + input);
+            }
+            // The outputs are named after the inputs.
+            if (!names.add(input.getName())) {
+                throw new IllegalArgumentException("Duplicate output name: " + input.getName());
+            }
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing the value of " + option);
+        }
+        return args[index];
+    }
+
+    private void run() throws IOException {
+        if (!mOutputDir.exists() && !mOutputDir.mkdirs()) {
+            throw new IOException("Can not mkdirs the dir: " + mOutputDir);
+        }
+        IStringFog stringFog = new StringFogWrapper(mImplementation);
+        StringFogProfile profile = mProfileFile == null ? null : StringFogProfile.parse(mProfileFile);
+        // Same as the gradle plugin, only a hard-coded key is known before the transform.
+        byte[][] keyTable = mKeyGenerator instanceof HardCodeKeyGenerator && mMasterKey == null
+                && mMode.canReferKey() ? new byte[][] {
+                ((HardCodeKeyGenerator) mKeyGenerator).getKey()} : null;
+
+        Path workDir = Files.createTempDirectory("stringfog");
+        ForkJoinPool pool = new ForkJoinPool(mThreads);
+        try {
+            File source = new File(workDir.toFile(), mPackageName.replace('.', File.separatorChar)
+                    + File.separator + FOG_CLASS_NAME + ".java");
+            StringFogClassGenerator.generate(source, mPackageName, FOG_CLASS_NAME, mImplementation,
+                    mMode, mCache, mCacheSize, mInstrument, mMasterKey, keyTable);
+            FogClassCompiler.compile(source, System.getProperty("java.class.path"), mRelease,
+                    new File(mOutputDir, FOG_CLASS_JAR));
+
+            StringFogMappingCollector mappingCollector = new StringFogMappingCollector(
+                    new File(workDir.toFile(), "fragments"));
+            ClassTransformer classTransformer = new ClassTransformer(stringFog, mappingCollector,
+                    PackageMatcher.compile(mFogPackages), WhiteLists.compile(mWhiteList),
+                    mKeyGenerator, mMasterKey, keyTable, mPackageName + "." + FOG_CLASS_NAME,
+                    mMode, mCache, profile, mLazy, mInstrument);
+            ArchiveTransformer archiveTransformer = new ArchiveTransformer(classTransformer, pool,
+                    mMaxInFlightBytes);
+            long start = System.currentTimeMillis();
+            for (File input : mInputs) {
+                Log.v("StringFog transform: " + input);
+                archiveTransformer.transform(input, new File(mOutputDir, input.getName()));
+            }
+            long cost = Math.max(System.currentTimeMillis() - start, 1);
+            mappingCollector.writeMapping(mMappingFile != null ? mMappingFile :
+                    new File(mOutputDir, MAPPING_FILE), mImplementation, mMode, className -> true);
+
+            int classes = archiveTransformer.getClassCount();
+            System.out.println("StringFog transformed " + classes + " classes ("
+                    + archiveTransformer.getClassBytes() / 1024 + " KB) in " + cost + " ms, "
+                    + classes * 1000L / cost + " classes/s.");
+        } finally {
+            pool.shutdownNow();
+            FogClassCompiler.deleteRecursively(workDir);
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.megatronking.stringfog.plugin;
+
+import com.github.megatronking.stringfog.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The deduplicated encrypted strings of a class, packed in the format of
+ * <code>StringFogTable</code>.
+ *
+ * @author Megatron King
+ * @since 2023/6/12 20:35
+ */
+
+/* package */ class ClassStringTable {
+
+    public static final String TABLE_CLASS = "com/github/megatronking/stringfog/StringFogTable";
+    public static final String TABLE_DESC = "L" + TABLE_CLASS + ";";
+
+    // The base64 encoded table must fit in a constant pool string.
+    private static final int MAX_SIZE = 65535 / 4 * 3;
+
+    private final Map<String, Integer> mIndexes = new HashMap<>();
+    private final ByteArrayOutputStream mEntries = new ByteArrayOutputStream();
+    private int mCount;
+
+    /* package */ int indexOf(String value) {
+        Integer index = mIndexes.get(value);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Add an entry to the table.
+     *
+     * @return The index of the entry, or -1 if the table is full.
+     */
+    /* package */ int add(String value, byte[] key, byte[] encryptValue) {
+        int entrySize = 4 + key.length + encryptValue.length;
+        if (mCount == 0xffff || key.length > 0xffff || encryptValue.length > 0xffff
+                || 2 + mEntries.size() + entrySize > MAX_SIZE) {
+            return -1;
+        }
+        writeShort(key.length);
+        writeShort(encryptValue.length);
+        mEntries.write(key, 0, key.length);
+        mEntries.write(encryptValue, 0, encryptValue.length);
+        mIndexes.put(value, mCount);
+        return mCount++;
+    }
+
+    /* package */ boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /* package */ String toBase64() {
+        ByteArrayOutputStream table = new ByteArrayOutputStream(2 + mEntries.size());
+        table.write(mCount >>> 8);
+        table.write(mCount);
+        table.write(mEntries.toByteArray(), 0, mEntries.size());
+        return new String(Base64.encode(table.toByteArray(), Base64.NO_WRAP));
+    }
+
+    private void writeShort(int value) {
+        mEntries.write(value >>> 8);
+        mEntries.write(value);
+    }
+
+}
@@ -22,8 +22,6 @@ import com.github.megatronking.stringfog.plugin.utils.TextUtils;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
 
-import java.util.List;
-
 /**
  * A factory creates {@link ClassVisitor}.
  *
@@ -36,35 +34,40 @@ public final class ClassVisitorFactory {
     private ClassVisitorFactory() {
     }
 
-    public static ClassVisitor create(IStringFog stringFogImpl, List<String> logs,
-                                      String[] fogPackages, IKeyGenerator kg, String fogClassName,
-                                      String className, StringFogMode mode, ClassVisitor cv) {
-        if (WhiteLists.inWhiteList(className) || !isInFogPackages(fogPackages, className)) {
+    /**
+     * Whether the class needs to be fogged, the excluded classes can skip the instrumentation.
+     *
+     * @param fogPackages The compiled fog packages.
+     * @param whiteLists The compiled white list.
+     * @param className The java or internal class name.
+     * @return True if the class should be visited by the StringFog.
+     */
+    public static boolean isInstrumentable(PackageMatcher fogPackages, WhiteLists whiteLists,
+                                           String className) {
+        return !TextUtils.isEmpty(className) && fogPackages.matches(className)
+                && !whiteLists.inWhiteList(className);
+    }
+
+    public static ClassVisitor create(IStringFog stringFogImpl,
+                                      StringFogMappingCollector mappingCollector,
+                                      PackageMatcher fogPackages, WhiteLists whiteLists,
+                                      IKeyGenerator kg, byte[] masterKey, byte[][] keyTable,
+                                      String fogClassName, String className, StringFogMode mode,
+                                      boolean cache, StringFogProfile profile, boolean lazy,
+                                      boolean instrument, ClassVisitor cv) {
+        if (!isInstrumentable(fogPackages, whiteLists, className)) {
+            // The fragment of a class excluded later is dropped when the mapping is written, the
+            // file I/O stays out of the transform.
             Log.v("StringFog ignore: " + className);
             return createEmpty(cv);
         }
         Log.v("StringFog execute: " + className);
-        return new StringFogClassVisitor(stringFogImpl, logs, fogClassName, cv, kg, mode);
+        return new StringFogClassVisitor(stringFogImpl, mappingCollector, fogClassName, cv, kg,
+                mode, cache, profile, lazy, instrument, masterKey, keyTable);
     }
 
     private static ClassVisitor createEmpty(ClassVisitor cv) {
         return new ClassVisitor(Opcodes.ASM9, cv) {};
     }
 
-    private static boolean isInFogPackages(String[] fogPackages, String className) {
-        if (TextUtils.isEmpty(className)) {
-            return false;
-        }
-        if (fogPackages == null || fogPackages.length == 0) {
-            // default we fog all packages.
-            return true;
-        }
-        for (String fogPackage : fogPackages) {
-            if (className.replace('/', '.').startsWith(fogPackage + ".")) {
-                return true;
-            }
-        }
-        return false;
-    }
-
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin;
+
+import java.util.Arrays;
+
+/**
+ * A matcher of the fog packages compiled once per build. The rules are compiled into prefix tries,
+ * both of the java class names and the internal class names are matched in O(name length) without
+ * allocation, '.' and '/' are treated as the same.
+ *
+ * A rule is a package name or a glob, a rule starts with '!' excludes the classes it matches:
+ * <ul>
+ *     <li>com.foo - the classes in the package com.foo and its sub packages.</li>
+ *     <li>com.foo.** - the same as above.</li>
+ *     <li>com.foo.* - the classes in the package com.foo only.</li>
+ *     <li>com.*.api.** - '*' matches exactly one package segment.</li>
+ *     <li>!com.foo.generated.** - exclude the classes of com.foo.generated.</li>
+ * </ul>
+ * A class is matched if no include rule is configured or an include rule matches it, and no
+ * exclude rule matches it.
+ *
+ * @author Megatron King
+ * @since 2023/6/29 10:12
+ */
+public final class PackageMatcher {
+
+    private static final String ANY_SEGMENT = "*";
+    private static final String ANY_SEGMENTS = "**";
+
+    private final Node mIncludes;
+    private final Node mExcludes;
+
+    private PackageMatcher(Node includes, Node excludes) {
+        this.mIncludes = includes;
+        this.mExcludes = excludes;
+    }
+
+    /**
+     * Compile the fog package rules, an empty array matches all the classes.
+     *
+     * @param rules The package names or globs, like "com.xxx.xxx" or "!com.xxx.xxx.**".
+     * @return The compiled matcher.
+     * @throws IllegalArgumentException If a rule is malformed.
+     */
+    public static PackageMatcher compile(String[] rules) {
+        Node includes = null;
+        Node excludes = null;
+        if (rules != null) {
+            for (String rule : rules) {
+                if (rule == null || rule.trim().isEmpty()) {
+                    continue;
+                }
+                String pattern = rule.trim();
+                if (pattern.startsWith("!")) {
+                    excludes = insert(excludes, rule, pattern.substring(1));
+                } else {
+                    includes = insert(includes, rule, pattern);
+                }
+            }
+        }
+        return new PackageMatcher(includes, excludes);
+    }
+
+    public boolean matches(String className) {
+        // default we fog all packages.
+        return (mIncludes == null || match(mIncludes, className, 0))
+                && (mExcludes == null || !match(mExcludes, className, 0));
+    }
+
+    private static Node insert(Node root, String rule, String pattern) {
+        String normalized = pattern.trim().replace('/', '.');
+        while (normalized.endsWith(".")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Empty fog package rule: " + rule);
+        }
+        String[] segments = normalized.split("\\.", -1);
+        Node node = root == null ? new Node() : root;
+        Node result = node;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Empty segment in fog package rule: " + rule);
+            }
+            boolean last = i == segments.length - 1;
+            if (ANY_SEGMENTS.equals(segment)) {
+                if (!last) {
+                    throw new IllegalArgumentException("'**' must be the last segment: " + rule);
+                }
+                node.anySegments = true;
+                return result;
+            }
+            if (ANY_SEGMENT.equals(segment)) {
+                if (node.anySegment == null) {
+                    node.anySegment = new Node();
+                }
+                node = node.anySegment;
+            } else if (segment.indexOf('*') >= 0) {
+                throw new IllegalArgumentException("'*' must be a whole segment: " + rule);
+            } else {
+                for (int j = 0; j < segment.length(); j++) {
+                    node = node.getOrAdd(segment.charAt(j));
+                }
+            }
+            if (last) {
+                if (ANY_SEGMENT.equals(segment)) {
+                    node.end = true;
+                } else {
+                    // A plain package name matches its sub packages, like the old versions.
+                    node.getOrAdd('.').anySegments = true;
+                }
+            } else {
+                node = node.getOrAdd('.');
+            }
+        }
+        return result;
+    }
+
+    private static boolean match(Node node, String className, int index) {
+        int length = className.length();
+        // The '**' matches one or more segments, so a class name in the package is required.
+        if (node.anySegments && index < length) {
+            return true;
+        }
+        if (index == length) {
+            return node.end;
+        }
+        if (node.anySegment != null) {
+            int end = index;
+            while (end < length && !isSeparator(className.charAt(end))) {
+                end++;
+            }
+            if (end > index && match(node.anySegment, className, end)) {
+                return true;
+            }
+        }
+        char c = className.charAt(index);
+        Node next = node.get(c == '/' ? '.' : c);
+        return next != null && match(next, className, index + 1);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '/';
+    }
+
+    private static final class Node {
+
+        // Sorted by chars for the binary search.
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+
+        private Node anySegment;
+        private boolean anySegments;
+        private boolean end;
+
+        Node get(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAdd(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insert = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            Node node = new Node();
+            newKeys[insert] = c;
+            newChildren[insert] = node;
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+
+    }
+
+}
@@ -20,6 +20,8 @@ import com.squareup.javawriter.JavaWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 
 import javax.lang.model.element.Modifier;
 
@@ -31,9 +33,15 @@ import javax.lang.model.element.Modifier;
  */
 public final class StringFogClassGenerator {
 
+    /**
+     * The slot count of the decrypted string cache, must be a power of two.
+     */
+    private static final int CACHE_SLOTS = 4096;
 
     public static void generate(File outputFile, String packageName, String className,
-                                String implementation, StringFogMode mode) throws IOException {
+                                String implementation, StringFogMode mode, boolean cache,
+                                long cacheSize, boolean instrument, byte[] masterKey,
+                                byte[][] keyTable) throws IOException {
         File outputDir = outputFile.getParentFile();
         if (!outputDir.exists() && !outputDir.mkdirs()) {
             throw new IOException("Can not mkdirs the dir: " + outputDir);
@@ -48,9 +56,36 @@ public final class StringFogClassGenerator {
         javaWriter.emitEmptyLine();
         javaWriter.emitImports(implementation);
         javaWriter.emitEmptyLine();
-        if (mode == StringFogMode.base64) {
-            javaWriter.emitImports("com.github.megatronking.stringfog.Base64");
+        // The call sites carry the nonces of the keys derived from the master key.
+        boolean masterKeyed = masterKey != null && mode.canReferKey();
+        // Or the indexes of the keys pre-decoded in the key table.
+        boolean keyTabled = !masterKeyed && keyTable != null && mode.canReferKey();
+        if (mode == StringFogMode.base64 || mode == StringFogMode.table
+                || mode == StringFogMode.dynamic || mode == StringFogMode.compact || masterKeyed
+                || keyTabled) {
+            javaWriter.emitImports("com.github.megatronking.stringfog.StringFogDecrypter");
         }
+        if (mode == StringFogMode.dynamic) {
+            javaWriter.emitImports("java.lang.invoke.MethodHandles");
+        }
+        javaWriter.emitImports("com.github.megatronking.stringfog.StringFogPrewarmer");
+        if (mode == StringFogMode.table) {
+            javaWriter.emitImports("com.github.megatronking.stringfog.StringFogTable");
+        }
+        boolean bounded = cache && cacheSize > 0;
+        if (bounded) {
+            javaWriter.emitImports("com.github.megatronking.stringfog.ClockStringFogCache");
+            javaWriter.emitImports("com.github.megatronking.stringfog.IStringFogCache");
+        } else if (cache && mode == StringFogMode.bytes) {
+            javaWriter.emitImports("java.util.Arrays");
+        }
+        if (instrument) {
+            javaWriter.emitImports("com.github.megatronking.stringfog.IStringFogListener");
+            if (mode != StringFogMode.bytes && mode != StringFogMode.compact) {
+                javaWriter.emitImports("com.github.megatronking.stringfog.Base64");
+            }
+        }
+        javaWriter.emitImports("java.util.concurrent.Executor");
 
         javaWriter.emitJavadoc("Generated code from StringFog gradle plugin. Do not modify!");
         javaWriter.beginType(className, "class", SetUtils.fromArray(Modifier.PUBLIC,
@@ -59,15 +94,80 @@ public final class StringFogClassGenerator {
         javaWriter.emitField(implementationSimpleClassName, "IMPL",
                 SetUtils.fromArray(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL),
                 "new " + implementationSimpleClassName + "()");
+        if (mode == StringFogMode.table) {
+            // The tables register themselves to be prewarmed.
+            javaWriter.emitField("StringFogPrewarmer", "PREWARMER",
+                    SetUtils.fromArray(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL),
+                    "new StringFogPrewarmer()");
+        }
+
+        String valueType = mode == StringFogMode.bytes ? byte[].class.getSimpleName() :
+                String.class.getSimpleName();
+        // The long nonce of a site or the int index of a key.
+        String keyType = masterKeyed ? long.class.getSimpleName() :
+                keyTabled ? int.class.getSimpleName() : valueType;
+        // The caches confirm a hit by the key object, the number of a site refers to a fixed one.
+        String cacheKey = "key";
+        if (masterKeyed) {
+            javaWriter.emitField(byte[].class.getSimpleName(), "MASTER_KEY",
+                    SetUtils.fromArray(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL),
+                    "new byte[] " + toArrayInitializer(masterKey));
+            cacheKey = "MASTER_KEY";
+        } else if (keyTabled) {
+            StringBuilder keys = new StringBuilder("new byte[][] {");
+            for (int i = 0; i < keyTable.length; i++) {
+                keys.append(i == 0 ? "" : ", ").append(toArrayInitializer(keyTable[i]));
+            }
+            javaWriter.emitField(byte[][].class.getSimpleName(), "KEYS",
+                    SetUtils.fromArray(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL),
+                    keys.append("}").toString());
+            cacheKey = "KEYS[key]";
+        }
+        if (bounded) {
+            javaWriter.emitField("IStringFogCache", "sCache",
+                    SetUtils.fromArray(Modifier.PRIVATE, Modifier.STATIC, Modifier.VOLATILE),
+                    "new ClockStringFogCache(" + cacheSize + "L)");
+        } else if (cache) {
+            javaWriter.emitField("Slot[]", "SLOTS",
+                    SetUtils.fromArray(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL),
+                    "new Slot[" + CACHE_SLOTS + "]");
+        }
+        if (instrument) {
+            javaWriter.emitField("IStringFogListener", "sListener",
+                    SetUtils.fromArray(Modifier.PRIVATE, Modifier.STATIC, Modifier.VOLATILE));
+        }
 
         javaWriter.emitEmptyLine();
-        if (mode == StringFogMode.base64) {
+        if (masterKeyed) {
+            javaWriter.beginMethod(String.class.getSimpleName(), "decrypt",
+                    SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                    valueType, "value",
+                    keyType, "key");
+            javaWriter.emitStatement("return StringFogDecrypter." + (mode == StringFogMode.compact ?
+                    "decryptCompact" : "decrypt") + "(IMPL, value, MASTER_KEY, key)");
+            javaWriter.endMethod();
+        } else if (keyTabled) {
+            javaWriter.beginMethod(String.class.getSimpleName(), "decrypt",
+                    SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                    valueType, "value",
+                    keyType, "key");
+            javaWriter.emitStatement("return StringFogDecrypter." + (mode == StringFogMode.compact ?
+                    "decryptCompact" : "decrypt") + "(IMPL, value, KEYS[key])");
+            javaWriter.endMethod();
+        } else if (mode == StringFogMode.base64 || mode == StringFogMode.table
+                || mode == StringFogMode.dynamic) {
             javaWriter.beginMethod(String.class.getSimpleName(), "decrypt",
                     SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
                     String.class.getSimpleName(), "value",
                     String.class.getSimpleName(), "key");
-            javaWriter.emitStatement("return IMPL.decrypt(Base64.decode(value, Base64.DEFAULT), " +
-                    "Base64.decode(key, Base64.DEFAULT))");
+            javaWriter.emitStatement("return StringFogDecrypter.decrypt(IMPL, value, key)");
+            javaWriter.endMethod();
+        } else if (mode == StringFogMode.compact) {
+            javaWriter.beginMethod(String.class.getSimpleName(), "decrypt",
+                    SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                    String.class.getSimpleName(), "value",
+                    String.class.getSimpleName(), "key");
+            javaWriter.emitStatement("return StringFogDecrypter.decryptCompact(IMPL, value, key)");
             javaWriter.endMethod();
         } else if (mode == StringFogMode.bytes) {
             javaWriter.beginMethod(String.class.getSimpleName(), "decrypt",
@@ -78,9 +178,220 @@ public final class StringFogClassGenerator {
             javaWriter.endMethod();
         }
 
+        if (mode == StringFogMode.dynamic) {
+            // The bootstrap method of the dynamic constants, it is called once per constant.
+            javaWriter.emitEmptyLine();
+            javaWriter.beginMethod(String.class.getSimpleName(), "constant",
+                    SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                    "MethodHandles.Lookup", "lookup",
+                    String.class.getSimpleName(), "name",
+                    "Class<?>", "type",
+                    String.class.getSimpleName(), "value",
+                    String.class.getSimpleName(), "key");
+            javaWriter.emitStatement("return decrypt(value, key)");
+            javaWriter.endMethod();
+        }
+
+        if (mode == StringFogMode.table) {
+            javaWriter.emitEmptyLine();
+            javaWriter.beginMethod("StringFogTable", "table",
+                    SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                    String.class.getSimpleName(), "data");
+            javaWriter.emitStatement("StringFogTable table = new StringFogTable(IMPL, data)");
+            javaWriter.emitStatement("PREWARMER.register(table)");
+            javaWriter.emitStatement("return table");
+            javaWriter.endMethod();
+        }
+
+        emitPrewarm(javaWriter, className, mode == StringFogMode.table ? "PREWARMER" :
+                "new StringFogPrewarmer()");
+
+        // The call sites with an id call the traced decrypt method if the instrumentation is
+        // enabled, it traces every call before the cache, so the cached calls are counted too.
+        String cacheMethod = instrument ? "decryptCached" : "decrypt";
+        if (bounded) {
+            emitBoundedCache(javaWriter, mode, cacheMethod, valueType, keyType, cacheKey);
+        } else if (cache) {
+            emitCache(javaWriter, mode, cacheMethod, valueType, keyType);
+        }
+        if (instrument) {
+            emitInstrument(javaWriter, mode, valueType, keyType, cache ?
+                    "decryptCached(id, value, key)" : "decrypt(value, key)");
+        }
+
         javaWriter.emitEmptyLine();
         javaWriter.endType();
 
         javaWriter.close();
     }
+
+    private static String toArrayInitializer(byte[] bytes) {
+        return Arrays.toString(bytes).replace('[', '{').replace(']', '}');
+    }
+
+    private static void emitPrewarm(JavaWriter javaWriter, String className, String prewarmer)
+            throws IOException {
+        // Initialize the classes to decrypt their static final strings, and decrypt the entries
+        // of the string tables, on the executor threads. Without tables, a prewarmer is only
+        // created when it is called.
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod("void", "prewarm",
+                SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                "Executor", "executor",
+                "String...", "classNames");
+        javaWriter.emitStatement(prewarmer + ".prewarm(executor, " + className +
+                ".class.getClassLoader(), classNames, null)");
+        javaWriter.endMethod();
+
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod("void", "prewarmAndWait",
+                SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                Arrays.asList("Executor", "executor", "String...", "classNames"),
+                Collections.singletonList("InterruptedException"));
+        javaWriter.emitStatement(prewarmer + ".prewarmAndWait(executor, " + className +
+                ".class.getClassLoader(), classNames)");
+        javaWriter.endMethod();
+    }
+
+    private static void emitInstrument(JavaWriter javaWriter, StringFogMode mode,
+                                       String valueType, String keyType, String decryptCall)
+            throws IOException {
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod(String.class.getSimpleName(), "decrypt",
+                SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                long.class.getSimpleName(), "id",
+                valueType, "value",
+                keyType, "key");
+        javaWriter.emitStatement("IStringFogListener listener = sListener");
+        javaWriter.beginControlFlow("if (listener == null)");
+        javaWriter.emitStatement("return " + decryptCall);
+        javaWriter.endControlFlow();
+        // The size of the encrypted data, it is measured out of the timing.
+        if (mode == StringFogMode.bytes) {
+            javaWriter.emitStatement("int bytes = value.length");
+        } else if (mode == StringFogMode.compact) {
+            // A char holds a byte.
+            javaWriter.emitStatement("int bytes = value.length()");
+        } else {
+            javaWriter.emitStatement("int bytes = Base64.decodedLength(value, Base64.DEFAULT)");
+        }
+        javaWriter.emitStatement("long start = System.nanoTime()");
+        javaWriter.emitStatement("String result = " + decryptCall);
+        javaWriter.emitStatement("listener.onDecrypt(id, System.nanoTime() - start, bytes)");
+        javaWriter.emitStatement("return result");
+        javaWriter.endMethod();
+
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod("void", "setListener",
+                SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                "IStringFogListener", "listener");
+        javaWriter.emitStatement("sListener = listener");
+        javaWriter.endMethod();
+    }
+
+    private static void emitBoundedCache(JavaWriter javaWriter, StringFogMode mode,
+                                         String methodName, String valueType, String keyType,
+                                         String cacheKey) throws IOException {
+        String decryptCall = "decrypt(value, key)";
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod(String.class.getSimpleName(), methodName,
+                SetUtils.fromArray(methodName.equals("decrypt") ? Modifier.PUBLIC :
+                        Modifier.PRIVATE, Modifier.STATIC),
+                long.class.getSimpleName(), "id",
+                valueType, "value",
+                keyType, "key");
+        javaWriter.emitStatement("IStringFogCache cache = sCache");
+        javaWriter.emitStatement("String result = cache.get(id, value, " + cacheKey + ")");
+        javaWriter.beginControlFlow("if (result == null)");
+        if (mode == StringFogMode.bytes) {
+            // The implementation may decrypt the value in place, keep the origin one.
+            javaWriter.emitStatement("byte[] originValue = value.clone()");
+            if (valueType.equals(keyType)) {
+                javaWriter.emitStatement("byte[] originKey = key.clone()");
+                cacheKey = "originKey";
+            }
+            javaWriter.emitStatement("result = " + decryptCall);
+            javaWriter.emitStatement("cache.put(id, originValue, " + cacheKey + ", result)");
+        } else {
+            javaWriter.emitStatement("result = " + decryptCall);
+            javaWriter.emitStatement("cache.put(id, value, " + cacheKey + ", result)");
+        }
+        javaWriter.endControlFlow();
+        javaWriter.emitStatement("return result");
+        javaWriter.endMethod();
+
+        // The cache is replaceable at runtime, e.g. by another eviction policy or budget.
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod("IStringFogCache", "getCache",
+                SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC));
+        javaWriter.emitStatement("return sCache");
+        javaWriter.endMethod();
+
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod("void", "setCache",
+                SetUtils.fromArray(Modifier.PUBLIC, Modifier.STATIC),
+                "IStringFogCache", "cache");
+        javaWriter.beginControlFlow("if (cache == null)");
+        javaWriter.emitStatement("throw new NullPointerException(\"cache\")");
+        javaWriter.endControlFlow();
+        javaWriter.emitStatement("sCache = cache");
+        javaWriter.endMethod();
+    }
+
+    private static void emitCache(JavaWriter javaWriter, StringFogMode mode, String methodName,
+                                  String valueType, String keyType) throws IOException {
+        // The slot of a call site is picked by its id, the encrypted value and key confirm the
+        // hit. A slot is immutable, so it is safely published to other threads without locks.
+        String decryptCall = "decrypt(value, key)";
+        javaWriter.emitEmptyLine();
+        javaWriter.beginMethod(String.class.getSimpleName(), methodName,
+                SetUtils.fromArray(methodName.equals("decrypt") ? Modifier.PUBLIC :
+                        Modifier.PRIVATE, Modifier.STATIC),
+                long.class.getSimpleName(), "id",
+                valueType, "value",
+                keyType, "key");
+        javaWriter.emitStatement("int index = (int) (id ^ (id >>> 32)) & (SLOTS.length - 1)");
+        javaWriter.emitStatement("Slot slot = SLOTS[index]");
+        boolean keyBytes = keyType.equals(byte[].class.getSimpleName());
+        if (mode == StringFogMode.bytes) {
+            javaWriter.beginControlFlow("if (slot != null && Arrays.equals(slot.value, value) " +
+                    (keyBytes ? "&& Arrays.equals(slot.key, key))" : "&& slot.key == key)"));
+        } else {
+            javaWriter.beginControlFlow("if (slot != null && slot.value == value && slot.key == key)");
+        }
+        javaWriter.emitStatement("return slot.result");
+        javaWriter.endControlFlow();
+        if (mode == StringFogMode.bytes) {
+            // The implementation may decrypt the value in place, keep the origin one.
+            javaWriter.emitStatement("byte[] originValue = value.clone()");
+            if (keyBytes) {
+                javaWriter.emitStatement("byte[] originKey = key.clone()");
+            }
+            javaWriter.emitStatement("String result = " + decryptCall);
+            javaWriter.emitStatement("SLOTS[index] = new Slot(originValue, " +
+                    (keyBytes ? "originKey" : "key") + ", result)");
+        } else {
+            javaWriter.emitStatement("String result = " + decryptCall);
+            javaWriter.emitStatement("SLOTS[index] = new Slot(value, key, result)");
+        }
+        javaWriter.emitStatement("return result");
+        javaWriter.endMethod();
+
+        javaWriter.emitEmptyLine();
+        javaWriter.beginType("Slot", "class", SetUtils.fromArray(Modifier.PRIVATE,
+                Modifier.STATIC, Modifier.FINAL));
+        javaWriter.emitField(valueType, "value", SetUtils.fromArray(Modifier.FINAL));
+        javaWriter.emitField(keyType, "key", SetUtils.fromArray(Modifier.FINAL));
+        javaWriter.emitField(String.class.getSimpleName(), "result",
+                SetUtils.fromArray(Modifier.FINAL));
+        javaWriter.emitEmptyLine();
+        javaWriter.beginConstructor(SetUtils.fromArray(), valueType, "value", keyType, "key",
+                String.class.getSimpleName(), "result");
+        javaWriter.emitStatement("this.value = value");
+        javaWriter.emitStatement("this.key = key");
+        javaWriter.emitStatement("this.result = result");
+        javaWriter.endConstructor();
+        javaWriter.endType();
+    }
+
 }
@@ -17,18 +17,27 @@ package com.github.megatronking.stringfog.plugin;
 import com.github.megatronking.stringfog.Base64;
 import com.github.megatronking.stringfog.IKeyGenerator;
 import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.StringFogKeyDerivation;
 import com.github.megatronking.stringfog.plugin.utils.TextUtils;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
 import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Visit the class to execute string fog.
@@ -42,34 +51,103 @@ import java.util.List;
     private static final String IGNORE_ANNOTATION = "Lcom/github/megatronking/stringfog" +
             "/annotation/StringFogIgnore;";
 
+    private static final String TABLE_FIELD = "stringfog$table";
+    private static final String TABLE_METHOD = "stringfog$table";
+    private static final String LAZY_METHOD = "stringfog$lazy";
+    private static final String LAZY_METHOD_DESC = "(I)Ljava/lang/String;";
+    private static final String CLINIT_METHOD = "stringfog$clinit$";
+
+    // The code size limit of the static final fields initialization injected into <clinit>, the
+    // rest are spilled into helper methods. The origin code of <clinit> needs some room too.
+    private static final int CLINIT_SIZE_LIMIT = 16 * 1024;
+    // The code size limit of a synthetic helper method, the JVM limit is 64KB.
+    private static final int METHOD_SIZE_LIMIT = 32 * 1024;
+    // Custom implementations might pad the encrypted data, the estimation reserves some bytes.
+    private static final int ENCRYPT_SIZE_MARGIN = 32;
+
     private boolean isClInitExists;
 
     private final List<ClassStringField> mStaticFinalFields = new ArrayList<>();
-    private final List<ClassStringField> mStaticFields = new ArrayList<>();
-    private final List<ClassStringField> mFinalFields = new ArrayList<>();
-    private final List<ClassStringField> mFields = new ArrayList<>();
+    // The fields are indexed by names and values, generated constant classes have thousands of
+    // fields, scanning them for every string would make the transform quadratic.
+    private final Map<String, ClassStringField> mStaticFinalFieldNames = new HashMap<>();
+    private final Map<String, ClassStringField> mStaticFinalFieldValues = new HashMap<>();
+    private final Set<String> mStaticFieldNames = new HashSet<>();
+    private final Map<String, ClassStringField> mFinalFieldValues = new HashMap<>();
+    private final Set<ClassStringField> mLazyFields = new HashSet<>();
+    // The lazy fields grouped by accessors and the spilled static final fields grouped by helpers.
+    private final List<List<ClassStringField>> mLazyGroups = new ArrayList<>();
+    // The lazy field name to {group, index in the group}.
+    private final Map<String, int[]> mLazyFieldIndexes = new HashMap<>();
+    private final List<List<ClassStringField>> mSpilledGroups = new ArrayList<>();
+    private final Set<ClassStringField> mSpilledFields = new HashSet<>();
+    private int mLazyGroupSize;
+    private int mSpilledGroupSize;
+    private int mClinitSize;
 
     private final IStringFog mStringFogImpl;
-    private final List<String> mLogs;
+    private final StringFogMappingCollector mMappingCollector;
+    private final List<String> mLogs = new ArrayList<>();
     private final IKeyGenerator mKeyGenerator;
+    private final byte[] mMasterKey;
+    private final byte[][] mKeyTable;
     private String mClassName;
-    private final InstructionWriter mInstructionWriter;
+    private String mJavaClassName;
+    private final String mFogClassName;
+    private final StringFogMode mMode;
+    private final boolean mCache;
+    private final StringFogProfile mProfile;
+    private final boolean mLazy;
+    private final boolean mInstrument;
+    private InstructionWriter mInstructionWriter;
+    private InstructionWriter mSiteInstructionWriter;
+    private ClassStringTable mStringTable;
+    private long mClassHash;
+    private int mSiteCount;
+    private String mMethodName;
+    private int mClassVersion;
+    private boolean mInterface;
+    private boolean mNestmates;
 
     private boolean mIgnoreClass;
 
 
-    /* package */ StringFogClassVisitor(IStringFog stringFogImpl, List<String> logs,
-                                        String fogClassName, ClassVisitor cv, IKeyGenerator kg, StringFogMode mode) {
+    /* package */ StringFogClassVisitor(IStringFog stringFogImpl,
+                                        StringFogMappingCollector mappingCollector,
+                                        String fogClassName, ClassVisitor cv, IKeyGenerator kg, StringFogMode mode,
+                                        boolean cache, StringFogProfile profile, boolean lazy,
+                                        boolean instrument, byte[] masterKey, byte[][] keyTable) {
         super(Opcodes.ASM9, cv);
         this.mStringFogImpl = stringFogImpl;
-        this.mLogs = logs;
+        this.mMappingCollector = mappingCollector;
         this.mKeyGenerator = kg;
-        this.mLogs.add(fogClassName);
         fogClassName = fogClassName.replace('.', '/');
-        if (mode == StringFogMode.base64) {
-            this.mInstructionWriter = new Base64InstructionWriter(fogClassName);
+        this.mFogClassName = fogClassName;
+        this.mMode = mode;
+        this.mLazy = lazy;
+        this.mInstrument = instrument;
+        this.mCache = cache;
+        this.mProfile = profile;
+        // The call sites carry nonces, the keys are derived from the master key.
+        this.mMasterKey = masterKey != null && mode.canReferKey() ? masterKey : null;
+        // Or the indexes of the keys which are decoded once in the fog class.
+        this.mKeyTable = mMasterKey == null && keyTable != null && mode.canReferKey() ? keyTable : null;
+        // The descriptor of the long nonce or the int index which refers to the key.
+        String keyReference = mMasterKey != null ? "J" : mKeyTable != null ? "I" : null;
+        if (mode == StringFogMode.base64 || mode == StringFogMode.table) {
+            // In table mode, the strings which can not be put into the table are written inline.
+            this.mInstructionWriter = new Base64InstructionWriter(fogClassName, false, keyReference);
+            this.mSiteInstructionWriter = new Base64InstructionWriter(fogClassName, true, keyReference);
         } else if (mode == StringFogMode.bytes) {
-            this.mInstructionWriter = new ByteArrayInstructionWriter(fogClassName);
+            this.mInstructionWriter = new ByteArrayInstructionWriter(fogClassName, false, keyReference);
+            this.mSiteInstructionWriter = new ByteArrayInstructionWriter(fogClassName, true, keyReference);
+        } else if (mode == StringFogMode.compact) {
+            this.mInstructionWriter = new CompactInstructionWriter(fogClassName, false, keyReference);
+            this.mSiteInstructionWriter = new CompactInstructionWriter(fogClassName, true, keyReference);
+        } else if (mode == StringFogMode.dynamic) {
+            // The dynamic constant caches the decrypted string itself.
+            this.mInstructionWriter = new DynamicInstructionWriter(fogClassName);
+            this.mSiteInstructionWriter = mInstructionWriter;
         } else {
             throw new IllegalArgumentException("Unknown stringfog mode: " + mode);
         }
@@ -78,9 +156,33 @@ import java.util.List;
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
         this.mClassName = name;
+        this.mClassHash = hashClassName(name);
+        this.mClassVersion = version & 0xFFFF;
+        this.mInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+        // Interfaces can not hold a private table field, so we write the strings inline.
+        if (mMode == StringFogMode.table && (access & Opcodes.ACC_INTERFACE) == 0) {
+            this.mStringTable = new ClassStringTable();
+        }
+        // The CONSTANT_Dynamic requires the class version 55 (Java 11) at least.
+        if (mMode == StringFogMode.dynamic && (version & 0xFFFF) < Opcodes.V11) {
+            this.mInstructionWriter = new Base64InstructionWriter(mFogClassName, false, null);
+            this.mSiteInstructionWriter = new Base64InstructionWriter(mFogClassName, true, null);
+        }
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
+    @Override
+    public void visitNestHost(String nestHost) {
+        mNestmates = true;
+        super.visitNestHost(nestHost);
+    }
+
+    @Override
+    public void visitNestMember(String nestMember) {
+        mNestmates = true;
+        super.visitNestMember(nestMember);
+    }
+
     @Override
     public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
         mIgnoreClass = IGNORE_ANNOTATION.equals(desc);
@@ -91,27 +193,44 @@ import java.util.List;
     public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
         if (ClassStringField.STRING_DESC.equals(desc) && name != null && !mIgnoreClass) {
             // static final, in this condition, the value is null or not null.
+            boolean nonFinal = false;
             if ((access & Opcodes.ACC_STATIC) != 0 && (access & Opcodes.ACC_FINAL) != 0) {
-                mStaticFinalFields.add(new ClassStringField(name, (String) value));
+                ClassStringField field = new ClassStringField(name, (String) value);
+                mStaticFinalFields.add(field);
+                mStaticFinalFieldNames.put(name, field);
+                if (field.value != null) {
+                    mStaticFinalFieldValues.putIfAbsent(field.value, field);
+                }
+                // Interface fields must be final, so they are always initialized in <clinit>.
+                if (!mInterface && canEncrypted(field.value)) {
+                    nonFinal = isLazy(access) ? addLazyField(field) :
+                            spillStaticFinalField(field, access);
+                }
                 value = null;
             }
             // static, in this condition, the value is null.
             if ((access & Opcodes.ACC_STATIC) != 0 && (access & Opcodes.ACC_FINAL) == 0) {
-                mStaticFields.add(new ClassStringField(name, (String) value));
+                mStaticFieldNames.add(name);
                 value = null;
             }
 
             // final, in this condition, the value is null or not null.
             if ((access & Opcodes.ACC_STATIC) == 0 && (access & Opcodes.ACC_FINAL) != 0) {
-                mFinalFields.add(new ClassStringField(name, (String) value));
+                if (value != null) {
+                    mFinalFieldValues.putIfAbsent((String) value, new ClassStringField(name, (String) value));
+                }
                 value = null;
             }
 
             // normal, in this condition, the value is null.
             if ((access & Opcodes.ACC_STATIC) == 0 && (access & Opcodes.ACC_FINAL) == 0) {
-                mFields.add(new ClassStringField(name, (String) value));
                 value = null;
             }
+
+            // The lazy or spilled field is assigned outside <clinit>, it can not be final.
+            if (nonFinal) {
+                access &= ~Opcodes.ACC_FINAL;
+            }
         }
         return super.visitField(access, name, desc, signature, value);
     }
@@ -122,6 +241,7 @@ import java.util.List;
         if (mv == null || mIgnoreClass) {
             return mv;
         }
+        mMethodName = name;
         if ("<clinit>".equals(name)) {
             isClInitExists = true;
             // If clinit exists meaning the static fields (not final) would have be inited here.
@@ -132,14 +252,13 @@ import java.util.List;
                 @Override
                 public void visitCode() {
                     super.visitCode();
-                    // Here init static final fields.
-                    for (ClassStringField field : mStaticFinalFields) {
-                        if (!canEncrypted(field.value)) {
-                            continue;
-                        }
-                        encryptAndWrite(field.value, mv);
-                        super.visitFieldInsn(Opcodes.PUTSTATIC, mClassName, field.name, ClassStringField.STRING_DESC);
+                    // The table must be ready before any string is used.
+                    if (mStringTable != null) {
+                        writeTableInit(mv);
                     }
+                    // Here init static final fields.
+                    writeStaticFinalFields(getClinitFields(), mv);
+                    writeSpilledCalls(mv);
                 }
 
                 @Override
@@ -156,21 +275,16 @@ import java.util.List;
 
                 @Override
                 public void visitFieldInsn(int opcode, String owner, String name, String desc) {
-                    if (mClassName.equals(owner) && lastStashCst != null) {
-                        boolean isContain = false;
-                        for (ClassStringField field : mStaticFields) {
-                            if (field.name.equals(name)) {
-                                isContain = true;
-                                break;
-                            }
-                        }
-                        if (!isContain) {
-                            for (ClassStringField field : mStaticFinalFields) {
-                                if (field.name.equals(name) && field.value == null) {
-                                    field.value = lastStashCst;
-                                    break;
-                                }
-                            }
+                    if (writeLazyGet(opcode, owner, name, mv)) {
+                        lastStashCst = null;
+                        return;
+                    }
+                    if (mClassName.equals(owner) && lastStashCst != null
+                            && !mStaticFieldNames.contains(name)) {
+                        ClassStringField field = mStaticFinalFieldNames.get(name);
+                        if (field != null && field.value == null) {
+                            field.value = lastStashCst;
+                            mStaticFinalFieldValues.putIfAbsent(field.value, field);
                         }
                     }
                     lastStashCst = null;
@@ -190,6 +304,13 @@ import java.util.List;
                         super.visitLdcInsn(cst);
                     }
                 }
+
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                    if (!writeLazyGet(opcode, owner, name, mv)) {
+                        super.visitFieldInsn(opcode, owner, name, desc);
+                    }
+                }
             };
         } else {
             mv = new MethodVisitor(Opcodes.ASM9, mv) {
@@ -198,20 +319,18 @@ import java.util.List;
                 public void visitLdcInsn(Object cst) {
                     if (cst instanceof String && canEncrypted((String) cst)) {
                         // If the value is a static final field
-                        for (ClassStringField field : mStaticFinalFields) {
-                            if (cst.equals(field.value)) {
-                                super.visitFieldInsn(Opcodes.GETSTATIC, mClassName, field.name, ClassStringField.STRING_DESC);
-                                return;
-                            }
+                        ClassStringField field = mStaticFinalFieldValues.get(cst);
+                        if (field != null) {
+                            visitFieldInsn(Opcodes.GETSTATIC, mClassName, field.name, ClassStringField.STRING_DESC);
+                            return;
                         }
-                        // If the value is a final field (not static)
-                        for (ClassStringField field : mFinalFields) {
-                            // if the value of a final field is null, we ignore it
-                            if (cst.equals(field.value)) {
-                                super.visitVarInsn(Opcodes.ALOAD, 0);
-                                super.visitFieldInsn(Opcodes.GETFIELD, mClassName, field.name, "Ljava/lang/String;");
-                                return;
-                            }
+                        // If the value is a final field (not static), if the value of a final
+                        // field is null, we ignore it
+                        field = mFinalFieldValues.get(cst);
+                        if (field != null) {
+                            super.visitVarInsn(Opcodes.ALOAD, 0);
+                            super.visitFieldInsn(Opcodes.GETFIELD, mClassName, field.name, "Ljava/lang/String;");
+                            return;
                         }
                         // local variables
                         encryptAndWrite((String) cst, mv);
@@ -220,6 +339,13 @@ import java.util.List;
                     super.visitLdcInsn(cst);
                 }
 
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                    if (!writeLazyGet(opcode, owner, name, mv)) {
+                        super.visitFieldInsn(opcode, owner, name, desc);
+                    }
+                }
+
             };
         }
         return mv;
@@ -227,87 +353,558 @@ import java.util.List;
 
     @Override
     public void visitEnd() {
-        if (!mIgnoreClass && !isClInitExists && !mStaticFinalFields.isEmpty()) {
+        // The accessors and helpers might put strings into the table, so they go first.
+        if (!mIgnoreClass) {
+            for (int i = 0; i < mLazyGroups.size(); i++) {
+                writeLazyAccessor(i);
+            }
+            for (int i = 0; i < mSpilledGroups.size(); i++) {
+                writeSpilledMethod(i);
+            }
+        }
+        if (!mIgnoreClass && !isClInitExists && (mStaticFinalFields.size() > mLazyFields.size()
+                || (mStringTable != null && !mStringTable.isEmpty()))) {
+            isClInitExists = true;
+            mMethodName = "<clinit>";
             MethodVisitor mv = super.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
             mv.visitCode();
-            // Here init static final fields.
-            for (ClassStringField field : mStaticFinalFields) {
-                if (!canEncrypted(field.value)) {
-                    continue;
-                }
-                encryptAndWrite(field.value, mv);
-                mv.visitFieldInsn(Opcodes.PUTSTATIC, mClassName, field.name, ClassStringField.STRING_DESC);
+            if (mStringTable != null) {
+                writeTableInit(mv);
             }
+            // Here init static final fields.
+            writeStaticFinalFields(getClinitFields(), mv);
+            writeSpilledCalls(mv);
             mv.visitInsn(Opcodes.RETURN);
             mv.visitMaxs(1, 0);
             mv.visitEnd();
         }
+        if (!mIgnoreClass && isClInitExists && mStringTable != null) {
+            writeTable();
+        }
+        // The mapping of a class is collected at once, the classes are visited in parallel. An
+        // empty mapping is collected too, it removes the fragment of the last build.
+        if (mMappingCollector != null) {
+            mMappingCollector.collect(getJavaClassName(), mLogs);
+        }
         super.visitEnd();
     }
 
+    private void writeTableInit(MethodVisitor mv) {
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, mClassName, TABLE_METHOD,
+                "()" + ClassStringTable.TABLE_DESC, false);
+        mv.visitFieldInsn(Opcodes.PUTSTATIC, mClassName, TABLE_FIELD, ClassStringTable.TABLE_DESC);
+    }
+
+    private void writeTable() {
+        super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL |
+                Opcodes.ACC_SYNTHETIC, TABLE_FIELD, ClassStringTable.TABLE_DESC, null, null).visitEnd();
+        // The table data is only complete after the whole class is visited, so the <clinit>
+        // creates the table through this method.
+        MethodVisitor mv = super.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC |
+                Opcodes.ACC_SYNTHETIC, TABLE_METHOD, "()" + ClassStringTable.TABLE_DESC, null, null);
+        mv.visitCode();
+        if (mStringTable.isEmpty()) {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        } else {
+            mv.visitLdcInsn(mStringTable.toBase64());
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, mFogClassName, "table",
+                    "(Ljava/lang/String;)" + ClassStringTable.TABLE_DESC, false);
+        }
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(1, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Only the fields which are read by this class alone are lazy, the accessor can not be called
+     * by other classes, e.g. a GETSTATIC of another class or reflection would read null. So the
+     * field must be private and the class must not have nestmates, which read private fields
+     * directly since Java 11.
+     */
+    private boolean isLazy(int access) {
+        return mLazy && (access & Opcodes.ACC_PRIVATE) != 0 && !mNestmates;
+    }
+
+    private boolean addLazyField(ClassStringField field) {
+        // tableswitch entry, get, null check, put and return.
+        int size = estimateSize(field.value) + 20;
+        if (mLazyGroups.isEmpty() || mLazyGroupSize + size > METHOD_SIZE_LIMIT) {
+            mLazyGroups.add(new ArrayList<ClassStringField>());
+            mLazyGroupSize = 0;
+        }
+        List<ClassStringField> group = mLazyGroups.get(mLazyGroups.size() - 1);
+        mLazyFieldIndexes.put(field.name, new int[] {mLazyGroups.size() - 1, group.size()});
+        group.add(field);
+        mLazyGroupSize += size;
+        mLazyFields.add(field);
+        return true;
+    }
+
+    /**
+     * A spilled field is assigned by a helper method, so it loses the final modifier. Only the
+     * private fields are spilled, the modifiers of the other fields are the API of the class, e.g.
+     * Modifier.isFinal() by reflection, and the JIT treats them as constants. The non-private
+     * fields always stay in the static initializer.
+     */
+    private boolean spillStaticFinalField(ClassStringField field, int access) {
+        // The field is put after the encrypted string.
+        int size = estimateSize(field.value) + 3;
+        if ((access & Opcodes.ACC_PRIVATE) == 0
+                || (mSpilledGroups.isEmpty() && mClinitSize + size <= CLINIT_SIZE_LIMIT)) {
+            mClinitSize += size;
+            return false;
+        }
+        // Keep the declaration order, all the following private fields are spilled too.
+        if (mSpilledGroups.isEmpty() || mSpilledGroupSize + size > METHOD_SIZE_LIMIT) {
+            mSpilledGroups.add(new ArrayList<ClassStringField>());
+            mSpilledGroupSize = 0;
+        }
+        mSpilledGroups.get(mSpilledGroups.size() - 1).add(field);
+        mSpilledGroupSize += size;
+        mSpilledFields.add(field);
+        return true;
+    }
+
+    private int estimateSize(String value) {
+        return mInstructionWriter.estimateSize(value.getBytes(StandardCharsets.UTF_8).length
+                + ENCRYPT_SIZE_MARGIN);
+    }
+
+    private void writeSpilledCalls(MethodVisitor mv) {
+        for (int i = 0; i < mSpilledGroups.size(); i++) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, mClassName, CLINIT_METHOD + i, "()V", false);
+        }
+    }
+
+    private List<ClassStringField> getClinitFields() {
+        List<ClassStringField> fields = new ArrayList<>();
+        for (ClassStringField field : mStaticFinalFields) {
+            if (canEncrypted(field.value) && !mLazyFields.contains(field)
+                    && !mSpilledFields.contains(field)) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private void writeStaticFinalFields(List<ClassStringField> fields, MethodVisitor mv) {
+        // The keys of the fields are generated in one batch.
+        String[] values = new String[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = fields.get(i).value;
+        }
+        byte[][] keys = values.length == 0 || mMasterKey != null ? null :
+                mKeyGenerator.generate(getJavaClassName(), values);
+        for (int i = 0; i < values.length; i++) {
+            encryptAndWrite(values[i], keys == null ? null : keys[i], mv);
+            mv.visitFieldInsn(Opcodes.PUTSTATIC, mClassName, fields.get(i).name,
+                    ClassStringField.STRING_DESC);
+        }
+    }
+
+    private void writeSpilledMethod(int group) {
+        MethodVisitor mv = super.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC |
+                Opcodes.ACC_SYNTHETIC, CLINIT_METHOD + group, "()V", null, null);
+        mMethodName = CLINIT_METHOD + group;
+        mv.visitCode();
+        writeStaticFinalFields(mSpilledGroups.get(group), mv);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(1, 0);
+        mv.visitEnd();
+    }
+
+    private boolean writeLazyGet(int opcode, String owner, String name, MethodVisitor mv) {
+        if (opcode != Opcodes.GETSTATIC || !mClassName.equals(owner)) {
+            return false;
+        }
+        int[] index = mLazyFieldIndexes.get(name);
+        if (index == null) {
+            return false;
+        }
+        InstructionWriter.pushNumber(mv, index[1]);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, mClassName, getLazyMethodName(index[0]),
+                LAZY_METHOD_DESC, false);
+        return true;
+    }
+
+    private static String getLazyMethodName(int group) {
+        return group == 0 ? LAZY_METHOD : LAZY_METHOD + "$" + group;
+    }
+
+    private void writeLazyAccessor(int group) {
+        // switch (index) {
+        //     case i:
+        //         String value = field_i;
+        //         if (value == null) field_i = value = decrypt(...);
+        //         return value;
+        // }
+        // Racing threads may decrypt a string twice, but they always get the same value.
+        List<ClassStringField> fields = mLazyGroups.get(group);
+        String methodName = getLazyMethodName(group);
+        MethodVisitor mv = super.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC |
+                Opcodes.ACC_SYNTHETIC, methodName, LAZY_METHOD_DESC, null, null);
+        mMethodName = methodName;
+        mv.visitCode();
+        boolean frames = mClassVersion >= Opcodes.V1_6;
+        Label defaultLabel = new Label();
+        Label returnLabel = new Label();
+        Label[] caseLabels = new Label[fields.size()];
+        for (int i = 0; i < caseLabels.length; i++) {
+            caseLabels[i] = new Label();
+        }
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitTableSwitchInsn(0, caseLabels.length - 1, defaultLabel, caseLabels);
+        for (int i = 0; i < caseLabels.length; i++) {
+            ClassStringField field = fields.get(i);
+            mv.visitLabel(caseLabels[i]);
+            if (frames) {
+                mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            }
+            mv.visitFieldInsn(Opcodes.GETSTATIC, mClassName, field.name, ClassStringField.STRING_DESC);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitJumpInsn(Opcodes.IFNONNULL, returnLabel);
+            mv.visitInsn(Opcodes.POP);
+            encryptAndWrite(field.value, mv);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitFieldInsn(Opcodes.PUTSTATIC, mClassName, field.name, ClassStringField.STRING_DESC);
+            mv.visitInsn(Opcodes.ARETURN);
+        }
+        mv.visitLabel(defaultLabel);
+        if (frames) {
+            mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        }
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitLabel(returnLabel);
+        if (frames) {
+            mv.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] {"java/lang/String"});
+        }
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+    }
+
+    private int indexOfKey(byte[] key) {
+        for (int i = 0; i < mKeyTable.length; i++) {
+            if (Arrays.equals(mKeyTable[i], key)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("The key generated for " + getJavaClassName()
+                + " is not in the key table of " + mFogClassName);
+    }
+
     private boolean canEncrypted(String value) {
         return !TextUtils.isEmptyAfterTrim(value) && value.length() < 65536 >> 2 && mStringFogImpl.shouldFog(value);
     }
 
     private void encryptAndWrite(String value, MethodVisitor mv) {
-        byte[] key = mKeyGenerator.generate(value);
+        encryptAndWrite(value, null, mv);
+    }
+
+    private void encryptAndWrite(String value, byte[] key, MethodVisitor mv) {
+        if (mStringTable != null && writeTableEntry(value, key, mv)) {
+            return;
+        }
+        long siteId = nextSiteId();
+        if (mMasterKey != null) {
+            // The site id is the nonce, it is unique in the module and stable across builds.
+            key = StringFogKeyDerivation.derive(mMasterKey, siteId);
+        } else if (key == null) {
+            key = mKeyGenerator.generate(getJavaClassName(), value);
+        }
         byte[] encryptValue = mStringFogImpl.encrypt(value, key);
-        String result = mInstructionWriter.write(key, encryptValue, mv);
-        mLogs.add(value + " -> " + result);
+        InstructionWriter writer = isSiteIdRequired(siteId) ? mSiteInstructionWriter :
+                mInstructionWriter;
+        long keyReference = mKeyTable != null ? indexOfKey(key) : siteId;
+        String result = writer.write(siteId, keyReference, key, encryptValue, mv);
+        if (mInstrument) {
+            // The site location is used to analyze the runtime instrumentation data.
+            mLogs.add("#" + siteId + " " + getJavaClassName() + "." + mMethodName + ": " + value
+                    + " -> " + result);
+        } else {
+            mLogs.add(value + " -> " + result);
+        }
+    }
+
+    private boolean writeTableEntry(String value, byte[] key, MethodVisitor mv) {
+        int index = mStringTable.indexOf(value);
+        if (index == -1) {
+            if (key == null) {
+                key = mKeyGenerator.generate(getJavaClassName(), value);
+            }
+            index = mStringTable.add(value, key, mStringFogImpl.encrypt(value, key));
+            if (index == -1) {
+                return false;
+            }
+            mLogs.add(value + " -> [" + index + "]");
+        }
+        mv.visitFieldInsn(Opcodes.GETSTATIC, mClassName, TABLE_FIELD, ClassStringTable.TABLE_DESC);
+        InstructionWriter.pushNumber(mv, index);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, ClassStringTable.TABLE_CLASS, "get",
+                "(I)Ljava/lang/String;", false);
+        return true;
+    }
+
+    /**
+     * A stable id of the call site, derived from the class name and the order of the site in
+     * the class. It is used to pick the cache slot of the site, to trace the site and as the
+     * nonce of the master key, so the ids of different classes must not collide: the 64 bits
+     * hash of the class name leaves the counter of a class far from the ids of other classes.
+     */
+    private long nextSiteId() {
+        return mClassHash + mSiteCount++;
+    }
+
+    /**
+     * The 64 bits FNV-1a hash of the class name.
+     */
+    private static long hashClassName(String className) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < className.length(); i++) {
+            hash ^= className.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * The site id is passed to the decrypt method to pick the cache slot or to trace. With a
+     * profile, only the hot sites are cached.
+     */
+    private boolean isSiteIdRequired(long siteId) {
+        return mInstrument || (mCache && (mProfile == null || mProfile.isHot(siteId)));
     }
 
     private String getJavaClassName() {
-        return mClassName != null ? mClassName.replace('/', '.') : null;
+        // It is used for every key generation, convert it only once.
+        if (mJavaClassName == null && mClassName != null) {
+            mJavaClassName = mClassName.replace('/', '.');
+        }
+        return mJavaClassName;
     }
 
     private static abstract class InstructionWriter {
 
+        /**
+         * Write a call site which leaves the decrypted string on the stack.
+         *
+         * @return The value presents in the mapping.
+         */
+        abstract String write(long siteId, long keyReference, byte[] key, byte[] value,
+                              MethodVisitor mv);
+
+        /**
+         * Estimate the code size of a written string, the site id included.
+         */
+        int estimateSize(int dataLength) {
+            // ldc_w value, ldc_w key, push site id and invokestatic.
+            return 16;
+        }
+
+        protected static void pushNumber(MethodVisitor mv, final int value) {
+            if (value >= -1 && value <= 5) {
+                mv.visitInsn(Opcodes.ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                mv.visitIntInsn(Opcodes.BIPUSH, value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                mv.visitIntInsn(Opcodes.SIPUSH, value);
+            } else {
+                mv.visitLdcInsn(value);
+            }
+        }
+
+        protected static void pushLong(MethodVisitor mv, final long value) {
+            if (value == 0L || value == 1L) {
+                mv.visitInsn(Opcodes.LCONST_0 + (int) value);
+            } else {
+                mv.visitLdcInsn(value);
+            }
+        }
+
+    }
+
+    /**
+     * Write a call site which pushes the encrypted value and key, and calls the decrypt method.
+     */
+    private static abstract class ValueInstructionWriter extends InstructionWriter {
+
         private final String mFogClassName;
+        private final boolean mSiteId;
+        private final String mKeyReference;
 
-        InstructionWriter(String fogClassName) {
+        ValueInstructionWriter(String fogClassName, boolean siteId, String keyReference) {
             mFogClassName = fogClassName;
+            mSiteId = siteId;
+            mKeyReference = keyReference;
+        }
+
+        /**
+         * Write a call site, it pushes the site id if required, the value and the key, or the
+         * nonce or index refers to the key of the module, and then calls the decrypt method.
+         */
+        @Override
+        String write(long siteId, long keyReference, byte[] key, byte[] value, MethodVisitor mv) {
+            if (mSiteId) {
+                // The cached or traced decrypt method takes the site id as the first argument.
+                pushLong(mv, siteId);
+            }
+            String result = pushValue(value, mv);
+            String valueDescriptor = getValueDescriptor();
+            if (mKeyReference != null) {
+                if (mKeyReference.equals("J")) {
+                    pushLong(mv, keyReference);
+                } else {
+                    pushNumber(mv, (int) keyReference);
+                }
+                writeClass(mv, "(" + valueDescriptor + mKeyReference + ")Ljava/lang/String;");
+            } else {
+                pushValue(key, mv);
+                writeClass(mv, "(" + valueDescriptor + valueDescriptor + ")Ljava/lang/String;");
+            }
+            return result;
         }
 
-        abstract String write(byte[] key, byte[] value, MethodVisitor mv);
+        /**
+         * Push the encrypted value or the key onto the stack.
+         *
+         * @return The value presents in the mapping.
+         */
+        abstract String pushValue(byte[] value, MethodVisitor mv);
+
+        abstract String getValueDescriptor();
 
-        protected void writeClass(MethodVisitor mv, String descriptor) {
+        private void writeClass(MethodVisitor mv, String descriptor) {
+            if (mSiteId) {
+                descriptor = "(J" + descriptor.substring(1);
+            }
             mv.visitMethodInsn(Opcodes.INVOKESTATIC, mFogClassName, "decrypt", descriptor, false);
         }
 
     }
 
-    private static class Base64InstructionWriter extends InstructionWriter {
+    private static class Base64InstructionWriter extends ValueInstructionWriter {
 
-        private Base64InstructionWriter(String fogClassName) {
-            super(fogClassName);
+        private Base64InstructionWriter(String fogClassName, boolean siteId, String keyReference) {
+            super(fogClassName, siteId, keyReference);
         }
 
         @Override
-        String write(byte[] key, byte[] value, MethodVisitor mv) {
-            String base64Key = new String(Base64.encode(key, Base64.DEFAULT));
+        String pushValue(byte[] value, MethodVisitor mv) {
             String base64Value = new String(Base64.encode(value, Base64.DEFAULT));
             mv.visitLdcInsn(base64Value);
-            mv.visitLdcInsn(base64Key);
-            super.writeClass(mv, "(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;");
+            return base64Value;
+        }
+
+        @Override
+        String getValueDescriptor() {
+            return "Ljava/lang/String;";
+        }
+
+    }
+
+    private static class CompactInstructionWriter extends ValueInstructionWriter {
+
+        // The max length of a CONSTANT_Utf8 in the class file.
+        private static final int MAX_UTF8_LENGTH = 65535;
+
+        private CompactInstructionWriter(String fogClassName, boolean siteId, String keyReference) {
+            super(fogClassName, siteId, keyReference);
+        }
+
+        @Override
+        String pushValue(byte[] value, MethodVisitor mv) {
+            pushString(mv, value);
+            return Arrays.toString(value);
+        }
+
+        @Override
+        String getValueDescriptor() {
+            return "Ljava/lang/String;";
+        }
+
+        private void pushString(MethodVisitor mv, byte[] buffer) {
+            // The bytes 0 and 0x80-0xff take 2 bytes in the modified UTF-8, a long value is split
+            // into several constants and concatenated.
+            StringBuilder builder = new StringBuilder(buffer.length);
+            int utf8Length = 0;
+            boolean first = true;
+            for (byte b : buffer) {
+                int size = b > 0 ? 1 : 2;
+                if (utf8Length + size > MAX_UTF8_LENGTH) {
+                    pushConstant(mv, builder.toString(), first);
+                    builder.setLength(0);
+                    utf8Length = 0;
+                    first = false;
+                }
+                builder.append((char) (b & 0xff));
+                utf8Length += size;
+            }
+            pushConstant(mv, builder.toString(), first);
+        }
+
+        private void pushConstant(MethodVisitor mv, String constant, boolean first) {
+            mv.visitLdcInsn(constant);
+            if (!first) {
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "concat",
+                        "(Ljava/lang/String;)Ljava/lang/String;", false);
+            }
+        }
+
+    }
+
+    private static class DynamicInstructionWriter extends InstructionWriter {
+
+        private static final String BOOTSTRAP_DESC = "(Ljava/lang/invoke/MethodHandles$Lookup;" +
+                "Ljava/lang/String;Ljava/lang/Class;Ljava/lang/String;Ljava/lang/String;)" +
+                "Ljava/lang/String;";
+
+        private final Handle mBootstrap;
+
+        private DynamicInstructionWriter(String fogClassName) {
+            mBootstrap = new Handle(Opcodes.H_INVOKESTATIC, fogClassName, "constant",
+                    BOOTSTRAP_DESC, false);
+        }
+
+        /**
+         * Load a CONSTANT_Dynamic, the bootstrap method decrypts it once and the JVM keeps the
+         * result, so the site id and the key reference are useless here.
+         */
+        @Override
+        String write(long siteId, long keyReference, byte[] key, byte[] value, MethodVisitor mv) {
+            String base64Key = new String(Base64.encode(key, Base64.DEFAULT));
+            String base64Value = new String(Base64.encode(value, Base64.DEFAULT));
+            mv.visitLdcInsn(new ConstantDynamic("stringfog", "Ljava/lang/String;", mBootstrap,
+                    base64Value, base64Key));
             return base64Value;
         }
 
     }
 
-    private static class ByteArrayInstructionWriter extends InstructionWriter {
+    private static class ByteArrayInstructionWriter extends ValueInstructionWriter {
 
-        private ByteArrayInstructionWriter(String fogClassName) {
-            super(fogClassName);
+        private ByteArrayInstructionWriter(String fogClassName, boolean siteId,
+                                           String keyReference) {
+            super(fogClassName, siteId, keyReference);
         }
 
         @Override
-        String write(byte[] key, byte[] value, MethodVisitor mv) {
+        String pushValue(byte[] value, MethodVisitor mv) {
             pushArray(mv, value);
-            pushArray(mv, key);
-            super.writeClass(mv, "([B[B)Ljava/lang/String;");
             return Arrays.toString(value);
         }
 
+        @Override
+        String getValueDescriptor() {
+            return "[B";
+        }
+
+        @Override
+        int estimateSize(int dataLength) {
+            // Each byte takes dup, index, value and bastore, the key length is about 8 bytes.
+            return (dataLength + 8) * 7 + 16;
+        }
+
         private void pushArray(MethodVisitor mv, byte[] buffer) {
             pushNumber(mv, buffer.length);
             mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BYTE);
@@ -320,18 +917,6 @@ import java.util.List;
             }
         }
 
-        private void pushNumber(MethodVisitor mv, final int value) {
-            if (value >= -1 && value <= 5) {
-                mv.visitInsn(Opcodes.ICONST_0 + value);
-            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
-                mv.visitIntInsn(Opcodes.BIPUSH, value);
-            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
-                mv.visitIntInsn(Opcodes.SIPUSH, value);
-            } else {
-                mv.visitLdcInsn(value);
-            }
-        }
-
     }
 
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin;
+
+import com.github.megatronking.stringfog.plugin.utils.Log;
+import com.github.megatronking.stringfog.plugin.utils.MD5;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Collect the mapping of the classes transformed on parallel workers. The mapping of a class is
+ * written to its own fragment file as soon as the class is visited, so an incremental build only
+ * touches the fragments of the changed classes. The fragments are merged into the mapping file
+ * only when it is requested.
+ *
+ * @author Megatron King
+ * @since 2023/6/27 16:40
+ */
+public final class StringFogMappingCollector {
+
+    private static final String FRAGMENT_SUFFIX = ".map";
+    // The first line of a fragment: "# className contentDigest".
+    private static final String HEADER_PREFIX = "# ";
+
+    private final File mFragmentDir;
+    private final String mQualifier;
+
+    public StringFogMappingCollector(File fragmentDir) {
+        this(fragmentDir, null);
+    }
+
+    private StringFogMappingCollector(File fragmentDir, String qualifier) {
+        this.mFragmentDir = fragmentDir;
+        this.mQualifier = qualifier;
+    }
+
+    /**
+     * A collector of the same fragments, whose classes are qualified, e.g. the classes of a
+     * version in a multi-release jar. A qualified class has its own fragment, named
+     * "className@qualifier" in the mapping, so it does not replace the fragment of the class.
+     *
+     * @param qualifier The qualifier of the classes.
+     * @return The collector of the qualified classes.
+     */
+    public StringFogMappingCollector withQualifier(String qualifier) {
+        return new StringFogMappingCollector(mFragmentDir, qualifier);
+    }
+
+    /**
+     * Collect the mapping of a class, a class collected again replaces the old fragment. The
+     * fragment is not rewritten if the mapping is not changed.
+     *
+     * @param className The class name.
+     * @param lines The mapping lines of the class.
+     */
+    public void collect(String className, List<String> lines) {
+        if (lines.isEmpty()) {
+            remove(className);
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        String content = builder.toString();
+        className = qualify(className);
+        String header = HEADER_PREFIX + className + " "
+                + MD5.getMessageDigest(content.getBytes(StandardCharsets.UTF_8));
+        File fragment = fragmentFile(className);
+        if (header.equals(readHeader(fragment))) {
+            return;
+        }
+        if (!mFragmentDir.exists() && !mFragmentDir.mkdirs() && !mFragmentDir.exists()) {
+            Log.e("Can not mkdirs the dir: " + mFragmentDir);
+            return;
+        }
+        try (OutputStream output = new FileOutputStream(fragment)) {
+            output.write((header + '\n' + content).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e("Write stringfog mapping fragment failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the fragment of a class which has nothing to map any more.
+     *
+     * @param className The class name.
+     */
+    public void remove(String className) {
+        File fragment = fragmentFile(qualify(className));
+        if (fragment.exists() && !fragment.delete()) {
+            Log.e("Delete stringfog mapping fragment failed: " + fragment);
+        }
+    }
+
+    /**
+     * Merge the fragments into the mapping file in the order of class names. The fragments of
+     * the classes which no longer exist are deleted.
+     *
+     * @param mappingFile The mapping file.
+     * @param implementation The implementation of the StringFog.
+     * @param mode The StringFog mode.
+     * @param classExists Test whether a class still exists in the transformed output.
+     * @throws IOException If failed to read the fragments.
+     */
+    public void writeMapping(File mappingFile, String implementation, StringFogMode mode,
+                             Predicate<String> classExists) throws IOException {
+        Map<String, File> fragments = new TreeMap<>();
+        File[] files = mFragmentDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().endsWith(FRAGMENT_SUFFIX)) {
+                    continue;
+                }
+                String header = readHeader(file);
+                String className = header == null ? null : header.substring(HEADER_PREFIX.length(),
+                        header.lastIndexOf(' '));
+                if (className == null || !classExists.test(className)) {
+                    if (!file.delete()) {
+                        Log.e("Delete stringfog mapping fragment failed: " + file);
+                    }
+                    continue;
+                }
+                fragments.put(className, file);
+            }
+        }
+        StringFogMappingPrinter printer = new StringFogMappingPrinter(mappingFile);
+        printer.startMappingOutput(implementation, mode);
+        try {
+            for (Map.Entry<String, File> entry : fragments.entrySet()) {
+                printer.output(entry.getKey(), readLines(entry.getValue()));
+            }
+        } finally {
+            printer.endMappingOutput();
+        }
+    }
+
+    private String qualify(String className) {
+        return mQualifier == null ? className : className + "@" + mQualifier;
+    }
+
+    private File fragmentFile(String className) {
+        // The hash keeps the classes differ only in case apart on case-insensitive file systems.
+        return new File(mFragmentDir, className + "@" + Integer.toHexString(className.hashCode())
+                + FRAGMENT_SUFFIX);
+    }
+
+    private static String readHeader(File fragment) {
+        if (!fragment.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = newReader(fragment)) {
+            String header = reader.readLine();
+            return header != null && header.startsWith(HEADER_PREFIX)
+                    && header.lastIndexOf(' ') > HEADER_PREFIX.length() ? header : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String[] readLines(File fragment) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = newReader(fragment)) {
+            // Skip the header.
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    private static BufferedReader newReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8));
+    }
+
+}
@@ -86,6 +86,21 @@ final class StringFogMappingPrinter {
         }
     }
 
+    /* package */ void output(String className, String[] lines) {
+        try {
+            mWriter.newLine();
+            mWriter.write("[" + className + "]");
+            mWriter.newLine();
+            for (String line : lines) {
+                mWriter.write(line);
+                mWriter.newLine();
+            }
+            mCurrentClassName = className;
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
     /* package */ void endMappingOutput() {
         if (mWriter != null) {
             try {
@@ -14,5 +14,41 @@ public enum StringFogMode {
      * Replace the origin string with an encrypted byte array.
      * Warning: this mode will increase the apk file size.
      */
-    bytes
+    bytes,
+
+    /**
+     * Replace the origin string with an encrypted byte array packed into a Latin-1 string, each
+     * char holds a byte. It avoids both the base64 text and the per-byte instructions of the bytes
+     * mode.
+     */
+    compact,
+
+    /**
+     * Pack the deduplicated encrypted strings of a class into one table, the origin string is
+     * replaced with a lookup by index. The strings are decrypted on demand and cached.
+     *
+     * The tables are per class, not one table of the module: the StringFog class is generated and
+     * compiled before the classes are transformed, and the classes are transformed in parallel,
+     * incrementally and from the build cache, so no step sees all the strings of the module. A
+     * string used by many classes is stored in each of their tables. The strings of interfaces,
+     * which can not hold the private table field, and the strings beyond the max size of a table
+     * (about 48KB of encrypted data per class) are written inline as in base64 mode.
+     */
+    table,
+
+    /**
+     * Replace the origin string with a dynamic constant whose bootstrap method decrypts it once,
+     * then the JIT treats the result as a true constant. Only for JVM targets (Java 11+ classes),
+     * the classes of older versions are written in base64 mode.
+     */
+    dynamic;
+
+    /**
+     * Whether the call sites of the mode can refer to a key of the module by a number, instead of
+     * carrying the whole key.
+     */
+    public boolean canReferKey() {
+        return this == base64 || this == bytes || this == compact;
+    }
+
 }
\ No newline at end of file
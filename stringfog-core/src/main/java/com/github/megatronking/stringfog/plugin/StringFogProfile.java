@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A profile of the hot decrypt call sites. When the cache is enabled, only the hot sites are cached
+ * and the cold sites are decrypted inline. Without the cache the profile changes nothing, so the
+ * plugin and the CLI reject a profile without the cache.
+ *
+ * The profile is a text file with a call site per line, a line starts with the site id and an
+ * optional '#', the rest is ignored. So the dump of <code>StringFogStats</code> can be used
+ * as a profile directly.
+ *
+ * @author Megatron King
+ * @since 2023/6/21 14:05
+ */
+public final class StringFogProfile {
+
+    private final Set<Long> mHotSites;
+
+    private StringFogProfile(Set<Long> hotSites) {
+        this.mHotSites = hotSites;
+    }
+
+    public static StringFogProfile parse(File file) throws IOException {
+        Set<Long> hotSites = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Long siteId = parseSiteId(line.trim());
+                if (siteId != null) {
+                    hotSites.add(siteId);
+                }
+            }
+        }
+        return new StringFogProfile(hotSites);
+    }
+
+    public boolean isHot(long siteId) {
+        return mHotSites.contains(siteId);
+    }
+
+    public int size() {
+        return mHotSites.size();
+    }
+
+    private static Long parseSiteId(String line) {
+        int start = line.startsWith("#") ? 1 : 0;
+        int end = start;
+        if (end < line.length() && line.charAt(end) == '-') {
+            end++;
+        }
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.valueOf(line.substring(start, end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
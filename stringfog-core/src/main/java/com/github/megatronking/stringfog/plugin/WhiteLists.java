@@ -23,49 +23,217 @@ import java.util.List;
  * The white list contains some ignored levels. We defined some popular
  * library domains and classes which must be ignored when executing string fog.
  *
+ * The names are kept in hash tables and looked up by the slices of the class name, so checking a
+ * class allocates nothing. The users can add more names:
+ * <ul>
+ *     <li>com.foo.Bar - a class name.</li>
+ *     <li>Bar - a simple class name in any package.</li>
+ *     <li>*_Factory - a glob of simple class names, '*' matches any chars.</li>
+ *     <li>com.foo.proto.*Proto - a glob of class names.</li>
+ * </ul>
+ *
  * @author Megatron King
  * @since 2017/3/7 19:34
  */
 
-final class WhiteLists {
-
-    private static final List<String> CLASS_WHITE_LIST = new ArrayList<>();
+public final class WhiteLists {
 
-    static {
-        // default classes short name in white list.
-        addWhiteList("BuildConfig");
-        addWhiteList("R");
-        addWhiteList("R2");
-        addWhiteList("StringFog");
-    }
+    // default classes short name in white list.
+    private static final String[] DEFAULT_WHITE_LIST = {
+            "BuildConfig",
+            "R",
+            "R2",
+            "StringFog"
+    };
 
-    static boolean inWhiteList(String name) {
-        return !TextUtils.isEmpty(name) && checkClass(shortClassName(name));
-    }
+    private final NameTable mSimpleNames = new NameTable();
+    private final NameTable mClassNames = new NameTable();
+    private final List<String> mSimplePatterns = new ArrayList<>();
+    private final List<String> mClassPatterns = new ArrayList<>();
 
     private WhiteLists() {
     }
 
-    private static void addWhiteList(String name) {
-        CLASS_WHITE_LIST.add(name);
+    /**
+     * Compile the white list with the default names and the names of the users.
+     *
+     * @param names The class names, simple class names or globs, may be null.
+     * @return The compiled white list.
+     */
+    public static WhiteLists compile(String[] names) {
+        WhiteLists whiteLists = new WhiteLists();
+        for (String name : DEFAULT_WHITE_LIST) {
+            whiteLists.addWhiteList(name);
+        }
+        if (names != null) {
+            for (String name : names) {
+                if (!TextUtils.isEmpty(name) && !name.trim().isEmpty()) {
+                    whiteLists.addWhiteList(name.trim());
+                }
+            }
+        }
+        return whiteLists;
     }
 
-    private static boolean checkClass(String name) {
-        for (String className : CLASS_WHITE_LIST) {
-            if (name.equals(className)) {
+    /**
+     * Whether the class is in the white list.
+     *
+     * @param className The java or internal class name.
+     * @return True if the class should be ignored.
+     */
+    public boolean inWhiteList(String className) {
+        if (TextUtils.isEmpty(className)) {
+            return false;
+        }
+        int length = className.length();
+        int simpleStart = simpleNameStart(className);
+        if (mSimpleNames.contains(className, simpleStart, length)
+                || mClassNames.contains(className, 0, length)) {
+            return true;
+        }
+        for (String pattern : mSimplePatterns) {
+            if (glob(pattern, className, simpleStart)) {
+                return true;
+            }
+        }
+        for (String pattern : mClassPatterns) {
+            if (glob(pattern, className, 0)) {
                 return true;
             }
         }
         return false;
     }
 
-    private static String trueClassName(String className) {
-        return className.replace('/', '.');
+    private void addWhiteList(String name) {
+        String normalized = name.replace('/', '.');
+        boolean qualified = normalized.indexOf('.') >= 0;
+        if (normalized.indexOf('*') >= 0) {
+            (qualified ? mClassPatterns : mSimplePatterns).add(normalized);
+        } else {
+            (qualified ? mClassNames : mSimpleNames).add(normalized);
+        }
+    }
+
+    private static int simpleNameStart(String className) {
+        for (int i = className.length() - 1; i >= 0; i--) {
+            if (isSeparator(className.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '/';
+    }
+
+    private static char charAt(String className, int index) {
+        char c = className.charAt(index);
+        return c == '/' ? '.' : c;
     }
 
-    private static String shortClassName(String className) {
-        String[] spiltArrays = trueClassName(className).split("[.]");
-        return spiltArrays[spiltArrays.length - 1];
+    /**
+     * Match the glob with the class name from the start index, '*' matches any chars.
+     */
+    private static boolean glob(String pattern, String className, int start) {
+        int p = 0;
+        int n = start;
+        int starP = -1;
+        int starN = -1;
+        int length = className.length();
+        while (n < length) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                starP = p++;
+                starN = n;
+            } else if (p < pattern.length() && pattern.charAt(p) == charAt(className, n)) {
+                p++;
+                n++;
+            } else if (starP >= 0) {
+                // Let the last '*' consume one more char.
+                p = starP + 1;
+                n = ++starN;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    /**
+     * An open addressing hash set of names, looked up by a slice of the class name.
+     */
+    private static final class NameTable {
+
+        private String[] mNames = new String[16];
+        private int mSize;
+
+        void add(String name) {
+            if (contains(name, 0, name.length())) {
+                return;
+            }
+            if ((mSize + 1) * 2 > mNames.length) {
+                String[] names = mNames;
+                mNames = new String[names.length * 2];
+                for (String exist : names) {
+                    if (exist != null) {
+                        insert(exist);
+                    }
+                }
+            }
+            insert(name);
+            mSize++;
+        }
+
+        boolean contains(String className, int start, int end) {
+            int mask = mNames.length - 1;
+            int index = spread(hash(className, start, end)) & mask;
+            String name;
+            while ((name = mNames[index]) != null) {
+                if (equals(name, className, start, end)) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        private void insert(String name) {
+            int mask = mNames.length - 1;
+            int index = spread(name.hashCode()) & mask;
+            while (mNames[index] != null) {
+                index = (index + 1) & mask;
+            }
+            mNames[index] = name;
+        }
+
+        // The same as String.hashCode() of the slice with '/' replaced by '.'.
+        private static int hash(String className, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + charAt(className, i);
+            }
+            return hash;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(String name, String className, int start, int end) {
+            if (name.length() != end - start) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if (name.charAt(i - start) != charAt(className, i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
     }
 
 }
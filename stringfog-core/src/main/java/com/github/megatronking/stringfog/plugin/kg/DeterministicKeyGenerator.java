@@ -0,0 +1,93 @@
+package com.github.megatronking.stringfog.plugin.kg;
+
+import com.github.megatronking.stringfog.IKeyGenerator;
+import com.github.megatronking.stringfog.plugin.utils.MD5;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Derive the security key of each string from a build secret, the class name and the string by
+ * HMAC-SHA256. The same input always produces the same bytecode, so the transformed classes can
+ * be reused from the build cache, while the strings still have different keys.
+ *
+ * @author Megatron King
+ * @since 2023/7/3 10:26
+ */
+public class DeterministicKeyGenerator implements IKeyGenerator {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String DEFAULT_SECRET = "StringFog";
+    private static final int DEFAULT_LENGTH = 8;
+    // The max length of a HMAC-SHA256 digest.
+    private static final int MAX_LENGTH = 32;
+
+    private final SecretKeySpec mSecret;
+    private final int mLength;
+    // Mac is not thread safe, the classes are transformed on parallel workers.
+    private final ThreadLocal<Mac> mMac;
+
+    public DeterministicKeyGenerator() {
+        this(DEFAULT_SECRET);
+    }
+
+    public DeterministicKeyGenerator(String secret) {
+        this(secret, DEFAULT_LENGTH);
+    }
+
+    public DeterministicKeyGenerator(String secret, int length) {
+        this(secret.getBytes(StandardCharsets.UTF_8), length);
+    }
+
+    public DeterministicKeyGenerator(byte[] secret, int length) {
+        if (secret.length == 0) {
+            throw new IllegalArgumentException("The secret must not be empty.");
+        }
+        if (length <= 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("The key length must be in [1, " + MAX_LENGTH + "].");
+        }
+        mSecret = new SecretKeySpec(secret, ALGORITHM);
+        mLength = length;
+        mMac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    @Override
+    public byte[] generate(String text) {
+        return generate("", text);
+    }
+
+    @Override
+    public byte[] generate(String className, String text) {
+        Mac mac = mMac.get();
+        mac.update(className.getBytes(StandardCharsets.UTF_8));
+        // Separate the class name and the text, so "a" + "bc" and "ab" + "c" differ.
+        mac.update((byte) 0);
+        byte[] digest = mac.doFinal(text.getBytes(StandardCharsets.UTF_8));
+        return mLength == digest.length ? digest : Arrays.copyOf(digest, mLength);
+    }
+
+    /**
+     * A fingerprint of the secret and the key length, it changes with any of them but does not
+     * reveal the secret. The keys of the same secret and length are the same in every build.
+     */
+    public String getFingerprint() {
+        byte[] digest = mMac.get().doFinal(("fingerprint:" + mLength)
+                .getBytes(StandardCharsets.UTF_8));
+        return MD5.getMessageDigest(digest) + ":" + mLength;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(mSecret);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Init " + ALGORITHM + " failed", e);
+        }
+    }
+
+}
@@ -26,5 +26,13 @@ public class HardCodeKeyGenerator implements IKeyGenerator {
     public byte[] generate(String text) {
         return mKey;
     }
+
+    /**
+     * The hard code key, it is stored once in the generated StringFog class and the call sites
+     * refer to it by an index.
+     */
+    public byte[] getKey() {
+        return mKey;
+    }
     
 }
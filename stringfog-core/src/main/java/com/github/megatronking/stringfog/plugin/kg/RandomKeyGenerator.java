@@ -3,9 +3,11 @@ package com.github.megatronking.stringfog.plugin.kg;
 import com.github.megatronking.stringfog.IKeyGenerator;
 
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
- * Dynamic random security key for encryption.
+ * Dynamic random security key for encryption. Each transform worker thread has its own random
+ * generator, so the parallel workers never wait for each other.
  *
  * @author Megatron King
  * @since 2022/2/14 22:40
@@ -14,7 +16,9 @@ public class RandomKeyGenerator implements IKeyGenerator {
 
     private static final int DEFAULT_LENGTH = 8;
 
-    private final SecureRandom mSecureRandom;
+    // SecureRandom synchronizes internally, a shared instance serializes the parallel workers.
+    private final ThreadLocal<SecureRandom> mSecureRandom =
+            ThreadLocal.withInitial(SecureRandom::new);
     private final int mLength;
 
     public RandomKeyGenerator() {
@@ -23,14 +27,29 @@ public class RandomKeyGenerator implements IKeyGenerator {
 
     public RandomKeyGenerator(int length) {
         mLength = length;
-        mSecureRandom = new SecureRandom();
+    }
+
+    public int getLength() {
+        return mLength;
     }
 
     @Override
     public byte[] generate(String text) {
         byte[] key = new byte[mLength];
-        mSecureRandom.nextBytes(key);
+        mSecureRandom.get().nextBytes(key);
         return key;
     }
 
+    @Override
+    public byte[][] generate(String className, String[] texts) {
+        // Draw the random bytes of all the keys at once.
+        byte[] random = new byte[mLength * texts.length];
+        mSecureRandom.get().nextBytes(random);
+        byte[][] keys = new byte[texts.length][];
+        for (int i = 0; i < texts.length; i++) {
+            keys[i] = Arrays.copyOfRange(random, i * mLength, (i + 1) * mLength);
+        }
+        return keys;
+    }
+
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the fog package rules, every class name is matched in both of the java and the
+ * internal form.
+ *
+ * @author Megatron King
+ * @since 2023/6/29 10:12
+ */
+public class PackageMatcherTest {
+
+    @Test
+    public void matchAllWithoutRules() {
+        assertMatches(PackageMatcher.compile(new String[0]), "com.foo.Bar", "Bar");
+        assertMatches(PackageMatcher.compile(null), "com.foo.Bar");
+        assertMatches(PackageMatcher.compile(new String[] {"", " ", null}), "com.foo.Bar");
+    }
+
+    @Test
+    public void matchPackageAndSubPackages() {
+        PackageMatcher matcher = PackageMatcher.compile(new String[] {"com.foo"});
+        assertMatches(matcher, "com.foo.Bar", "com.foo.bar.Baz");
+        assertNotMatches(matcher, "com.foo", "com.foobar.Baz", "com.Foo", "org.foo.Bar");
+        // The same as "com.foo".
+        matcher = PackageMatcher.compile(new String[] {"com.foo.**"});
+        assertMatches(matcher, "com.foo.Bar", "com.foo.bar.Baz");
+        assertNotMatches(matcher, "com.foo", "com.foobar.Baz");
+        // The internal names and the trailing separators are accepted by the rules too.
+        matcher = PackageMatcher.compile(new String[] {" com/foo/ "});
+        assertMatches(matcher, "com.foo.Bar", "com.foo.bar.Baz");
+    }
+
+    @Test
+    public void matchPackageOnly() {
+        PackageMatcher matcher = PackageMatcher.compile(new String[] {"com.foo.*"});
+        assertMatches(matcher, "com.foo.Bar", "com.foo.Bar$Inner");
+        assertNotMatches(matcher, "com.foo", "com.foo.bar.Baz", "com.foobar.Baz");
+    }
+
+    @Test
+    public void matchAnySegment() {
+        PackageMatcher matcher = PackageMatcher.compile(new String[] {"com.*.api.**"});
+        assertMatches(matcher, "com.foo.api.Service", "com.bar.api.v1.Service");
+        assertNotMatches(matcher, "com.api.Service", "com.foo.bar.api.Service",
+                "com.foo.api", "com.foo.apis.Service");
+    }
+
+    @Test
+    public void excludeRules() {
+        PackageMatcher matcher = PackageMatcher.compile(new String[] {"com.foo",
+                "!com.foo.generated.**"});
+        assertMatches(matcher, "com.foo.Bar", "com.foo.generatedx.Bar");
+        assertNotMatches(matcher, "com.foo.generated.Bar", "com.foo.generated.sub.Bar",
+                "org.foo.Bar");
+        // Only the excludes match all the other classes.
+        matcher = PackageMatcher.compile(new String[] {"!com.foo.*", "!org.*.internal"});
+        assertMatches(matcher, "com.foo.bar.Baz", "com.Bar", "org.foo.Bar");
+        assertNotMatches(matcher, "com.foo.Bar", "org.foo.internal.Bar",
+                "org.foo.internal.sub.Bar");
+    }
+
+    @Test
+    public void multipleIncludes() {
+        PackageMatcher matcher = PackageMatcher.compile(new String[] {"com.foo", "com.bar.*"});
+        assertMatches(matcher, "com.foo.Bar", "com.bar.Baz");
+        assertNotMatches(matcher, "com.bar.sub.Baz", "com.baz.Bar");
+    }
+
+    @Test
+    public void rejectEmptyRule() {
+        assertIllegal("!");
+        assertIllegal("...");
+    }
+
+    @Test
+    public void rejectEmptySegment() {
+        assertIllegal("com..foo");
+        assertIllegal(".com.foo");
+    }
+
+    @Test
+    public void rejectAnySegmentsNotLast() {
+        assertIllegal("com.**.foo");
+    }
+
+    @Test
+    public void rejectPartialWildcard() {
+        assertIllegal("com.foo*");
+        assertIllegal("com.f*o.Bar");
+    }
+
+    private static void assertMatches(PackageMatcher matcher, String... classNames) {
+        for (String className : classNames) {
+            assertTrue(className, matcher.matches(className));
+            assertTrue(className, matcher.matches(className.replace('.', '/')));
+        }
+    }
+
+    private static void assertNotMatches(PackageMatcher matcher, String... classNames) {
+        for (String className : classNames) {
+            assertFalse(className, matcher.matches(className));
+            assertFalse(className, matcher.matches(className.replace('.', '/')));
+        }
+    }
+
+    private static void assertIllegal(String rule) {
+        try {
+            PackageMatcher.compile(new String[] {rule});
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("Accepted the malformed rule: " + rule);
+    }
+
+}
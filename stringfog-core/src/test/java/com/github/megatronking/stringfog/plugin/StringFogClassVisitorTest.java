@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin;
+
+import com.github.megatronking.stringfog.Base64;
+import com.github.megatronking.stringfog.IStringFog;
+import com.github.megatronking.stringfog.plugin.kg.DeterministicKeyGenerator;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Transform the generated constant classes whose static final fields exceed the code size limit
+ * of the static initializer, and load them with a fog class of the test.
+ *
+ * @author Megatron King
+ * @since 2023/7/6 10:12
+ */
+public class StringFogClassVisitorTest {
+
+    private static final String CLASS_NAME = "sample/Constants";
+    // More than 16KB of the field initialization in base64 mode.
+    private static final int FIELD_COUNT = 1500;
+
+    @Test
+    public void publicConstantsStayFinal() throws Exception {
+        Class<?> clazz = load(transform(constants(Opcodes.ACC_PUBLIC)));
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            Field field = clazz.getDeclaredField("FIELD_" + i);
+            assertTrue(field.getName(), Modifier.isFinal(field.getModifiers()));
+            assertEquals(value(i), field.get(null));
+        }
+        assertTrue(helperMethods(clazz).isEmpty());
+    }
+
+    @Test
+    public void privateConstantsSpill() throws Exception {
+        Class<?> clazz = load(transform(constants(Opcodes.ACC_PRIVATE)));
+        int spilled = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            Field field = clazz.getDeclaredField("FIELD_" + i);
+            field.setAccessible(true);
+            if (!Modifier.isFinal(field.getModifiers())) {
+                spilled++;
+            } else {
+                // The fields are spilled in the declaration order.
+                assertEquals(0, spilled);
+            }
+            assertEquals(value(i), field.get(null));
+        }
+        assertTrue(spilled > 0 && spilled < FIELD_COUNT);
+        assertFalse(helperMethods(clazz).isEmpty());
+    }
+
+    private static byte[] constants(int access) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, CLASS_NAME, null,
+                "java/lang/Object", null);
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            FieldVisitor fv = writer.visitField(access | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL,
+                    "FIELD_" + i, "Ljava/lang/String;", null, value(i));
+            fv.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static byte[] transform(byte[] bytes) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor visitor = ClassVisitorFactory.create(new XorStringFog(), null,
+                PackageMatcher.compile(new String[0]), WhiteLists.compile(new String[0]),
+                new DeterministicKeyGenerator("secret"), null, null, Fog.class.getName(),
+                CLASS_NAME, StringFogMode.base64, false, null, false, false, writer);
+        new ClassReader(bytes).accept(visitor, 0);
+        return writer.toByteArray();
+    }
+
+    private static Class<?> load(byte[] bytes) throws ClassNotFoundException {
+        ClassLoader loader = new ClassLoader(StringFogClassVisitorTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if (!name.equals(CLASS_NAME.replace('/', '.'))) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        return Class.forName(CLASS_NAME.replace('/', '.'), true, loader);
+    }
+
+    private static List<String> helperMethods(Class<?> clazz) {
+        List<String> methods = new ArrayList<>();
+        for (java.lang.reflect.Method method : clazz.getDeclaredMethods()) {
+            if (method.getName().startsWith("stringfog$clinit$")) {
+                methods.add(method.getName());
+            }
+        }
+        return methods;
+    }
+
+    private static String value(int index) {
+        return "The constant value of the field " + index;
+    }
+
+    private static final class XorStringFog implements IStringFog {
+
+        @Override
+        public byte[] encrypt(String data, byte[] key) {
+            return xor(data.getBytes(StandardCharsets.UTF_8), key);
+        }
+
+        @Override
+        public String decrypt(byte[] data, byte[] key) {
+            return new String(xor(data, key), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean shouldFog(String data) {
+            return true;
+        }
+
+        private static byte[] xor(byte[] data, byte[] key) {
+            byte[] result = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                result[i] = (byte) (data[i] ^ key[i % key.length]);
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * The fog class the transformed classes call, the same as the generated one in base64 mode.
+     */
+    public static final class Fog {
+
+        private static final XorStringFog IMPL = new XorStringFog();
+
+        public static String decrypt(String value, String key) {
+            return IMPL.decrypt(Base64.decode(value, Base64.DEFAULT),
+                    Base64.decode(key, Base64.DEFAULT));
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the mapping fragments: the removed classes, the classes filtered out when the mapping
+ * is written and the qualified classes of a multi-release jar.
+ *
+ * @author Megatron King
+ * @since 2023/6/27 17:20
+ */
+public class StringFogMappingCollectorTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFragmentDir;
+    private File mMappingFile;
+    private StringFogMappingCollector mCollector;
+
+    @Before
+    public void setUp() {
+        mFragmentDir = new File(mFolder.getRoot(), "fragments");
+        mMappingFile = new File(mFolder.getRoot(), "mapping.txt");
+        mCollector = new StringFogMappingCollector(mFragmentDir);
+    }
+
+    @Test
+    public void mergeInClassOrder() throws IOException {
+        mCollector.collect("com.foo.B", Collections.singletonList("b -> 1"));
+        mCollector.collect("com.foo.A", Arrays.asList("a -> 1", "a -> 2"));
+        assertEquals(Arrays.asList(
+                "stringfog impl: Impl",
+                "stringfog mode: base64",
+                "",
+                "[com.foo.A]",
+                "a -> 1",
+                "a -> 2",
+                "",
+                "[com.foo.B]",
+                "b -> 1"), writeMapping(Collections.emptyList()));
+    }
+
+    @Test
+    public void replaceAndRemoveStaleFragments() throws IOException {
+        mCollector.collect("com.foo.A", Collections.singletonList("a -> 1"));
+        mCollector.collect("com.foo.B", Collections.singletonList("b -> 1"));
+        mCollector.collect("com.foo.C", Collections.singletonList("c -> 1"));
+        // Collected again with new lines, with no lines, and removed.
+        mCollector.collect("com.foo.A", Collections.singletonList("a -> 2"));
+        mCollector.collect("com.foo.B", Collections.emptyList());
+        mCollector.remove("com.foo.C");
+        assertEquals(1, fragments().length);
+        assertEquals(Arrays.asList("[com.foo.A]", "a -> 2"), classSections());
+    }
+
+    @Test
+    public void keepUnchangedFragment() {
+        mCollector.collect("com.foo.A", Collections.singletonList("a -> 1"));
+        File fragment = fragments()[0];
+        assertTrue(fragment.setLastModified(0));
+        mCollector.collect("com.foo.A", Collections.singletonList("a -> 1"));
+        assertEquals(0, fragment.lastModified());
+    }
+
+    @Test
+    public void filterClassesWhenWriting() throws IOException {
+        mCollector.collect("com.foo.A", Collections.singletonList("a -> 1"));
+        mCollector.collect("com.foo.B", Collections.singletonList("b -> 1"));
+        assertEquals(Arrays.asList("[com.foo.A]", "a -> 1"),
+                classSections(Collections.singletonList("com.foo.B")));
+        // The fragment of the filtered class is deleted.
+        assertEquals(1, fragments().length);
+        assertEquals(Arrays.asList("[com.foo.A]", "a -> 1"), classSections());
+    }
+
+    @Test
+    public void keepFragmentPerQualifier() throws IOException {
+        StringFogMappingCollector java11 = mCollector.withQualifier("java11");
+        mCollector.collect("com.foo.A", Collections.singletonList("a -> 8"));
+        java11.collect("com.foo.A", Collections.singletonList("a -> 11"));
+        mCollector.withQualifier("java17").collect("com.foo.A",
+                Collections.singletonList("a -> 17"));
+        assertEquals(3, fragments().length);
+        // The qualified collector only removes its own fragment.
+        java11.remove("com.foo.A");
+        assertEquals(Arrays.asList(
+                "[com.foo.A]", "a -> 8",
+                "[com.foo.A@java17]", "a -> 17"), classSections());
+        // The predicate sees the qualified names.
+        assertEquals(Arrays.asList("[com.foo.A]", "a -> 8"),
+                classSections(Collections.singletonList("com.foo.A@java17")));
+    }
+
+    private File[] fragments() {
+        File[] files = mFragmentDir.listFiles();
+        assertNotNull(files);
+        return files;
+    }
+
+    private List<String> classSections() throws IOException {
+        return classSections(Collections.emptyList());
+    }
+
+    // The mapping without the header and the blank lines.
+    private List<String> classSections(List<String> removed) throws IOException {
+        List<String> lines = new ArrayList<>(writeMapping(removed));
+        lines.subList(0, 2).clear();
+        lines.removeIf(String::isEmpty);
+        return lines;
+    }
+
+    private List<String> writeMapping(List<String> removed) throws IOException {
+        mCollector.writeMapping(mMappingFile, "Impl", StringFogMode.base64,
+                className -> !removed.contains(className));
+        return Files.readAllLines(mMappingFile.toPath(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the exact names and the globs of the white list, every class name is checked in both
+ * of the java and the internal form.
+ *
+ * @author Megatron King
+ * @since 2023/6/29 16:40
+ */
+public class WhiteListsTest {
+
+    @Test
+    public void defaultNames() {
+        WhiteLists whiteLists = WhiteLists.compile(null);
+        assertIn(whiteLists, "com.foo.BuildConfig", "com.foo.R", "com.foo.R2",
+                "com.foo.StringFog", "R");
+        assertNotIn(whiteLists, "com.foo.R$string", "com.foo.Bar", "com.R.Bar");
+        assertFalse(whiteLists.inWhiteList(null));
+        assertFalse(whiteLists.inWhiteList(""));
+    }
+
+    @Test
+    public void exactNames() {
+        WhiteLists whiteLists = WhiteLists.compile(new String[] {"com.foo.Bar", " Baz ",
+                "org/foo/Qux", "", null});
+        assertIn(whiteLists, "com.foo.Bar", "com.foo.Baz", "org.bar.Baz", "Baz",
+                "org.foo.Qux");
+        assertNotIn(whiteLists, "com.foo.BarX", "com.foo.sub.Bar", "org.foo.Bar",
+                "com.foo.Baz$Inner", "org.foo.sub.Qux");
+    }
+
+    @Test
+    public void simpleNameGlobs() {
+        WhiteLists whiteLists = WhiteLists.compile(new String[] {"*_Factory", "Dagger*"});
+        assertIn(whiteLists, "com.foo.Bar_Factory", "_Factory", "com.foo.DaggerComponent",
+                "Dagger");
+        assertNotIn(whiteLists, "com.foo.Bar_FactoryImpl", "com.Dagger.Bar",
+                "com.foo_Factory.Bar");
+    }
+
+    @Test
+    public void classNameGlobs() {
+        WhiteLists whiteLists = WhiteLists.compile(new String[] {"com.foo.proto.*Proto"});
+        assertIn(whiteLists, "com.foo.proto.UserProto", "com.foo.proto.Proto",
+                "com.foo.proto.sub.UserProto");
+        assertNotIn(whiteLists, "com.foo.UserProto", "com.foo.proto.UserProtoBuilder",
+                "org.foo.proto.UserProto");
+    }
+
+    private static void assertIn(WhiteLists whiteLists, String... classNames) {
+        for (String className : classNames) {
+            assertTrue(className, whiteLists.inWhiteList(className));
+            assertTrue(className, whiteLists.inWhiteList(className.replace('.', '/')));
+        }
+    }
+
+    private static void assertNotIn(WhiteLists whiteLists, String... classNames) {
+        for (String className : classNames) {
+            assertFalse(className, whiteLists.inWhiteList(className));
+            assertFalse(className, whiteLists.inWhiteList(className.replace('.', '/')));
+        }
+    }
+
+}
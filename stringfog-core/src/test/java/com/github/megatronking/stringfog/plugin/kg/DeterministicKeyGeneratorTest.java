@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog.plugin.kg;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Tests of the deterministic keys, the same secret must produce the same keys in every build so
+ * the transformed classes can be reused from the build cache.
+ *
+ * @author Megatron King
+ * @since 2023/7/3 10:26
+ */
+public class DeterministicKeyGeneratorTest {
+
+    @Test
+    public void pinKeys() {
+        // HMAC-SHA256("secret", "com.foo.Bar\0hello").
+        assertEquals("67e660e54052878f",
+                hex(new DeterministicKeyGenerator("secret").generate("com.foo.Bar", "hello")));
+        assertEquals("67e660e54052878f7a47aef581b088c13419772d4419c55909681661c12f57f4",
+                hex(new DeterministicKeyGenerator("secret", 32).generate("com.foo.Bar", "hello")));
+    }
+
+    @Test
+    public void generateSameKeysForSameSecret() {
+        DeterministicKeyGenerator generator = new DeterministicKeyGenerator("secret", 16);
+        byte[] key = generator.generate("com.foo.Bar", "hello");
+        assertEquals(16, key.length);
+        assertArrayEquals(key, generator.generate("com.foo.Bar", "hello"));
+        assertArrayEquals(key,
+                new DeterministicKeyGenerator("secret", 16).generate("com.foo.Bar", "hello"));
+        assertEquals(generator.getFingerprint(),
+                new DeterministicKeyGenerator("secret", 16).getFingerprint());
+    }
+
+    @Test
+    public void generateDifferentKeys() {
+        DeterministicKeyGenerator generator = new DeterministicKeyGenerator("secret");
+        byte[] key = generator.generate("com.foo.Bar", "hello");
+        assertFalse(Arrays.equals(key, generator.generate("com.foo.Bar", "hello!")));
+        assertFalse(Arrays.equals(key, generator.generate("com.foo.Baz", "hello")));
+        assertFalse(Arrays.equals(key,
+                new DeterministicKeyGenerator("secret2").generate("com.foo.Bar", "hello")));
+        // The class name and the text are separated.
+        assertFalse(Arrays.equals(generator.generate("a", "bc"), generator.generate("ab", "c")));
+    }
+
+    @Test
+    public void fingerprintChangesWithSecretAndLength() {
+        String fingerprint = new DeterministicKeyGenerator("secret").getFingerprint();
+        assertNotEquals(fingerprint, new DeterministicKeyGenerator("secret2").getFingerprint());
+        assertNotEquals(fingerprint, new DeterministicKeyGenerator("secret", 16).getFingerprint());
+        assertFalse(fingerprint.contains("secret"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectEmptySecret() {
+        new DeterministicKeyGenerator("");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTooLongKey() {
+        new DeterministicKeyGenerator("secret", 33);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+
+}
@@ -35,6 +35,19 @@ public final class StringFogImpl implements IStringFog {
         return new String(xor(data, key), StandardCharsets.UTF_8);
     }
 
+    @Override
+    public String decrypt(byte[] data, int offset, int length, byte[] key, int keyOffset,
+                          int keyLength) {
+        int end = offset + length;
+        for (int i = offset, j = 0; i < end; i++, j++) {
+            if (j >= keyLength) {
+                j = 0;
+            }
+            data[i] = (byte) (data[i] ^ key[keyOffset + j]);
+        }
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+
     @Override
     public boolean shouldFog(String data) {
         return true;
@@ -1,11 +1,14 @@
 package com.github.megatronking.stringfog.plugin;
 
 import org.gradle.api.DefaultTask
+import org.gradle.api.provider.ListProperty
 import org.gradle.api.provider.Property
 import org.gradle.api.tasks.CacheableTask
 import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.TaskAction
 import java.io.File
+import java.util.Base64
 import javax.inject.Inject
 
 @CacheableTask
@@ -22,6 +25,19 @@ abstract class SourceGeneratingTask @Inject constructor(): DefaultTask() {
     abstract val implementation: Property<String>
     @get:Input
     abstract val mode: Property<StringFogMode>
+    @get:Input
+    abstract val cache: Property<Boolean>
+    @get:Input
+    abstract val cacheSize: Property<Long>
+    @get:Input
+    abstract val instrument: Property<Boolean>
+    @get:Input
+    @get:Optional
+    abstract val masterKey: Property<String>
+    // The base64 encoded keys of the key table.
+    @get:Input
+    @get:Optional
+    abstract val keyTable: ListProperty<String>
 
     @TaskAction
     fun injectSource() {
@@ -32,7 +48,10 @@ abstract class SourceGeneratingTask @Inject constructor(): DefaultTask() {
 
         val outputFile = File(genDir.get(), applicationId.get().replace('.', File.separatorChar) + File.separator + "StringFog.java")
         StringFogClassGenerator.generate(outputFile, applicationId.get(), FOG_CLASS_NAME,
-            implementation.get(), mode.get())
+            implementation.get(), mode.get(), cache.get(), cacheSize.get(),
+            instrument.get(), masterKey.orNull?.toByteArray(),
+            keyTable.orNull?.takeIf { it.isNotEmpty() }
+                ?.map { Base64.getDecoder().decode(it) }?.toTypedArray())
     }
 
 }
\ No newline at end of file
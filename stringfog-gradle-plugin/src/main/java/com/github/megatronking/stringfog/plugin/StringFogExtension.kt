@@ -1,13 +1,17 @@
 package com.github.megatronking.stringfog.plugin
 
 import com.github.megatronking.stringfog.IKeyGenerator
-import com.github.megatronking.stringfog.plugin.kg.RandomKeyGenerator
+import com.github.megatronking.stringfog.plugin.kg.DeterministicKeyGenerator
+import com.github.megatronking.stringfog.plugin.kg.HardCodeKeyGenerator
+import java.io.File
 
 abstract class StringFogExtension {
 
     companion object {
         val base64 = StringFogMode.base64
         val bytes = StringFogMode.bytes
+        val compact = StringFogMode.compact
+        val table = StringFogMode.table
     }
 
     /**
@@ -24,15 +28,66 @@ abstract class StringFogExtension {
     /**
      * A generator to generate a security key for the encryption and decryption.
      *
-     * StringFog use a 8 length random key generator default.
+     * The default is a DeterministicKeyGenerator, it derives an 8 bytes key of each string from a
+     * secret, the class name and the string by HMAC-SHA256. The same input produces the same
+     * bytecode, so the transformed classes are reused from the build cache. The default secret is
+     * the public "StringFog", anyone can derive the keys with it, so configure your own secret,
+     * e.g. DeterministicKeyGenerator("your secret"). Or use a RandomKeyGenerator to get different
+     * keys in every build.
      */
-    var kg : IKeyGenerator  = RandomKeyGenerator()
+    var kg : IKeyGenerator  = DeterministicKeyGenerator()
+
+    /**
+     * A master key of the module. The key of each string is derived from it and the call site id
+     * at runtime, so a call site carries a long nonce instead of the whole key. The kg is ignored
+     * then, except in the table mode which stores the keys in the tables. Default is null.
+     */
+    var masterKey: String? = null
 
     /**
      * How the encrypted string presents in java class, default is base64.
      */
     var mode: StringFogMode = base64
 
+    /**
+     * Cache the decrypted string of each call site, so a site pays the decryption cost only once
+     * per process. It is useful for strings in hot code paths. Default is disabled.
+     */
+    var cache: Boolean = false
+
+    /**
+     * The memory budget of the decrypted string cache in bytes, the least recently used strings
+     * are evicted once the budget is exceeded. Zero means a fixed slot cache of the call sites.
+     * It takes effect only when the cache is enabled.
+     */
+    var cacheSize: Long = 0
+
+    /**
+     * Decrypt the private static final String fields on first access instead of in the static
+     * initializer, so loading a large constants class stays cheap. Only the private fields of
+     * classes without nestmates are lazy, other classes and reflection read the fields directly,
+     * so the others are still decrypted in the static initializer and stay final. A lazy field
+     * loses the final modifier and reads null by reflection before first access. Default is
+     * disabled.
+     */
+    var lazy: Boolean = false
+
+    /**
+     * Generate the runtime instrumentation of the decrypt calls, a listener set by
+     * StringFog.setListener() receives the site id, time and size of each decryption. The site ids
+     * are printed in the mapping file. Default is disabled, no code is generated then.
+     */
+    var instrument: Boolean = false
+
+    /**
+     * A profile of the hot call sites, one site id per line, e.g. the dump of StringFogStats.
+     * Only the hot sites are cached and the cold sites are decrypted inline. It requires the
+     * cache enabled, the build fails otherwise. The hot sites are not moved into a pre-decrypted
+     * table, use the table mode and StringFog.prewarm() for that. Default is null, all sites are
+     * treated the same.
+     */
+    var profile: File? = null
+
     /**
      * Enable or disable the StringFog plugin. Default is enabled.
      */
@@ -45,7 +100,31 @@ abstract class StringFogExtension {
 
     /**
      * The java packages will be applied. Default is effect on all packages.
+     *
+     * A package name also matches its sub packages. Globs are supported, '*' matches one package
+     * segment and a trailing '**' matches any sub packages, a rule starts with '!' excludes the
+     * matched classes, e.g. ["com.foo.**", "!com.foo.generated.**"].
      */
     var fogPackages : Array<String> = emptyArray()
 
+    /**
+     * The classes will not be applied, besides the BuildConfig, R and R2 classes. An item can be a
+     * class name, a simple class name or a glob in which '*' matches any chars, a glob without
+     * package matches the simple class names, e.g. ["*_Factory", "*_Impl", "com.foo.proto.*"].
+     */
+    var whiteList : Array<String> = emptyArray()
+
+    /**
+     * The keys known before the transform, they are decoded once in the StringFog class and the
+     * call sites refer to them by index. Only a hard-coded key is known that early.
+     */
+    internal fun keyTable(): Array<ByteArray>? {
+        val kg = kg
+        return if (kg is HardCodeKeyGenerator && masterKey == null && mode.canReferKey()) {
+            arrayOf(kg.key)
+        } else {
+            null
+        }
+    }
+
 }
\ No newline at end of file
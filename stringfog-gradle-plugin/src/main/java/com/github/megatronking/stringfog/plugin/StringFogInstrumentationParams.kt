@@ -1,9 +1,23 @@
 package com.github.megatronking.stringfog.plugin
 
 import com.android.build.api.instrumentation.InstrumentationParameters
+import com.github.megatronking.stringfog.IKeyGenerator
 import com.github.megatronking.stringfog.StringFogWrapper
+import com.github.megatronking.stringfog.plugin.kg.DeterministicKeyGenerator
+import com.github.megatronking.stringfog.plugin.kg.HardCodeKeyGenerator
+import com.github.megatronking.stringfog.plugin.kg.RandomKeyGenerator
+import com.github.megatronking.stringfog.plugin.utils.MD5
+import org.gradle.api.file.RegularFileProperty
+import org.gradle.api.provider.ListProperty
 import org.gradle.api.provider.Property
 import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
 import java.lang.ref.WeakReference
 import java.util.WeakHashMap
 
@@ -13,15 +27,72 @@ abstract class StringFogInstrumentationParams : InstrumentationParameters {
 
     @get:Input
     abstract val className: Property<String>
+
+    @get:Input
+    abstract val variantName: Property<String>
+
+    // The options below change the instrumented classes, the classes are transformed again once
+    // any of them changes, the same as the StringFog class is generated again.
+    @get:Input
+    abstract val implementation: Property<String>
+
+    @get:Input
+    abstract val mode: Property<StringFogMode>
+
+    @get:Input
+    abstract val cache: Property<Boolean>
+
+    @get:Input
+    abstract val lazy: Property<Boolean>
+
+    @get:Input
+    abstract val instrument: Property<Boolean>
+
+    @get:Input
+    @get:Optional
+    abstract val masterKey: Property<String>
+
+    @get:Input
+    abstract val fogPackages: ListProperty<String>
+
+    @get:Input
+    abstract val whiteList: ListProperty<String>
+
+    // The class of the key generator and the fingerprint of its keys.
+    @get:Input
+    abstract val keyGenerator: Property<String>
+
+    // The digest of the key table, the call sites refer to the keys by their indexes.
+    @get:Input
+    @get:Optional
+    abstract val keyTableDigest: Property<String>
+
+    @get:InputFile
+    @get:Optional
+    @get:PathSensitive(PathSensitivity.NONE)
+    abstract val profileFile: RegularFileProperty
 }
 
 private class NonSerializableParams(
-    val logs: MutableList<String>,
-    val implementation: StringFogWrapper
-)
+    val implementation: StringFogWrapper,
+    profileFile: File?,
+    fogPackages: Array<String>,
+    whiteList: Array<String>,
+    masterKey: String?,
+    val keyTable: Array<ByteArray>?
+) {
+    // Parsed once and shared by all the class visitors.
+    val profile: StringFogProfile? by lazy { profileFile?.let { StringFogProfile.parse(it) } }
+    // Compiled once and shared by all the classes.
+    val packageMatcher: PackageMatcher = PackageMatcher.compile(fogPackages)
+    val whiteLists: WhiteLists = WhiteLists.compile(whiteList)
+    val masterKey: ByteArray? = masterKey?.toByteArray()
+}
 
 private val extensionForApplicationId = mutableMapOf<String, WeakReference<StringFogExtension>>()
 private val extensionNonSerializableParams = WeakHashMap<StringFogExtension, NonSerializableParams>()
+// The variants share the extension, but each variant has its own mapping.
+private val mappingCollectors = mutableMapOf<String, StringFogMappingCollector>()
 
 internal val StringFogInstrumentationParams.extension
     get() = extensionForApplicationId[applicationId.get()]?.get()
@@ -31,23 +102,75 @@ private val StringFogInstrumentationParams.nonSerializableParameters
     get() = extension.let { extensionNonSerializableParams[it] }
         ?: throw IllegalStateException("runtimeParameters have not been registered with setParameters")
 
-internal val StringFogInstrumentationParams.logs get() = nonSerializableParameters.logs
+internal val StringFogInstrumentationParams.mappingCollector
+    get() = mappingCollectors[applicationId.get() + ":" + variantName.get()]
+        ?: throw IllegalStateException("Mapping collector has not been registered with setParameters")
+
+internal val StringFogInstrumentationParams.stringFog get() = nonSerializableParameters.implementation
+
+internal val StringFogInstrumentationParams.profile get() = nonSerializableParameters.profile
 
-internal val StringFogInstrumentationParams.implementation get() = nonSerializableParameters.implementation
+internal val StringFogInstrumentationParams.packageMatcher get() = nonSerializableParameters.packageMatcher
+
+internal val StringFogInstrumentationParams.whiteLists get() = nonSerializableParameters.whiteLists
+
+internal val StringFogInstrumentationParams.masterKeyBytes get() = nonSerializableParameters.masterKey
+
+internal val StringFogInstrumentationParams.keyTable get() = nonSerializableParameters.keyTable
 
 internal fun StringFogInstrumentationParams.setParameters(
     applicationId: String,
+    variantName: String,
     extension: StringFogExtension,
-    logs: MutableList<String>,
+    mappingCollector: StringFogMappingCollector,
     className: String
 ) {
     this.applicationId.set(applicationId)
     this.className.set(className)
+    this.variantName.set(variantName)
+    this.implementation.set(extension.implementation)
+    this.mode.set(extension.mode)
+    this.cache.set(extension.cache)
+    this.lazy.set(extension.lazy)
+    this.instrument.set(extension.instrument)
+    this.masterKey.set(extension.masterKey)
+    this.fogPackages.set(extension.fogPackages.toList())
+    this.whiteList.set(extension.whiteList.toList())
+    this.keyGenerator.set(keyGeneratorIdentity(extension.kg))
+    val keyTable = extension.keyTable()
+    this.keyTableDigest.set(keyTable?.let { digestKeyTable(it) })
+    mappingCollectors["$applicationId:$variantName"] = mappingCollector
+    extension.profile?.let { this.profileFile.set(it) }
     extensionForApplicationId[applicationId] = WeakReference(extension)
     extensionNonSerializableParams[extension] = NonSerializableParams(
-        logs = logs,
-        implementation = StringFogWrapper(extension.implementation)
+        implementation = StringFogWrapper(extension.implementation),
+        profileFile = extension.profile,
+        fogPackages = extension.fogPackages,
+        whiteList = extension.whiteList,
+        masterKey = extension.masterKey,
+        keyTable = keyTable
     )
-    logs.add("stringfog impl: " + extension.implementation)
-    logs.add("stringfog mode: " + extension.mode)
-}
\ No newline at end of file
+}
+
+private fun keyGeneratorIdentity(kg: IKeyGenerator): String {
+    val fingerprint = when (kg) {
+        is DeterministicKeyGenerator -> kg.fingerprint
+        is HardCodeKeyGenerator -> MD5.getMessageDigest(kg.key)
+        is RandomKeyGenerator -> kg.length.toString()
+        // The state of a custom generator is unknown, only the class is tracked.
+        else -> ""
+    }
+    return kg.javaClass.name + ":" + fingerprint
+}
+
+private fun digestKeyTable(keyTable: Array<ByteArray>): String {
+    // The length prefixes keep the boundaries of the keys.
+    val buffer = ByteArrayOutputStream()
+    DataOutputStream(buffer).use { output ->
+        keyTable.forEach { key ->
+            output.writeInt(key.size)
+            output.write(key)
+        }
+    }
+    return MD5.getMessageDigest(buffer.toByteArray())
+}
@@ -0,0 +1,68 @@
+package com.github.megatronking.stringfog.plugin
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+import java.io.File
+import java.util.zip.ZipFile
+
+/**
+ * Merge the per-class mapping fragments written by the transform into the mapping file. The task
+ * only runs when the mapping is requested, the fragments of the classes which are deleted or no
+ * longer instrumented are dropped here.
+ */
+abstract class StringFogMappingTask : DefaultTask() {
+
+    @get:Internal
+    abstract val fragmentDir: Property<File>
+    @get:InputFiles
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val fragments: ConfigurableFileCollection
+    @get:InputFiles
+    @get:PathSensitive(PathSensitivity.RELATIVE)
+    abstract val classes: ConfigurableFileCollection
+    @get:OutputFile
+    abstract val mappingFile: Property<File>
+    @get:Input
+    abstract val implementation: Property<String>
+    @get:Input
+    abstract val mode: Property<StringFogMode>
+    @get:Input
+    abstract val fogPackages: ListProperty<String>
+    @get:Input
+    abstract val whiteList: ListProperty<String>
+
+    @TaskAction
+    fun writeMapping() {
+        val dirs = classes.files.filter { it.isDirectory }
+        // The entries of jars are listed only once, the directories are looked up per class.
+        val jarClasses = HashSet<String>()
+        classes.files.filter { it.isFile && it.name.endsWith(".jar") }.forEach { jar ->
+            ZipFile(jar).use { zip ->
+                zip.entries().asSequence().forEach { entry ->
+                    if (entry.name.endsWith(".class")) {
+                        jarClasses.add(entry.name)
+                    }
+                }
+            }
+        }
+        val packageMatcher = PackageMatcher.compile(fogPackages.get().toTypedArray())
+        val whiteLists = WhiteLists.compile(whiteList.get().toTypedArray())
+        StringFogMappingCollector(fragmentDir.get()).writeMapping(
+            mappingFile.get(), implementation.get(), mode.get()
+        ) { className ->
+            val path = className.replace('.', '/') + ".class"
+            ClassVisitorFactory.isInstrumentable(packageMatcher, whiteLists, className)
+                    && (jarClasses.contains(path) || dirs.any { File(it, path).exists() })
+        }
+    }
+
+}
@@ -14,6 +14,7 @@ import org.gradle.configurationcache.extensions.capitalized
 import java.io.File
 import java.io.FileInputStream
 import java.io.InputStreamReader
+import java.util.Base64
 
 class StringFogPlugin : Plugin<Project> {
 
@@ -48,6 +49,15 @@ class StringFogPlugin : Plugin<Project> {
             if (stringfog.implementation.isNullOrEmpty()) {
                 throw IllegalArgumentException("Missing stringfog implementation config")
             }
+            if (stringfog.mode == StringFogMode.dynamic) {
+                throw IllegalArgumentException("Stringfog dynamic mode is not supported on Android")
+            }
+            if (stringfog.masterKey?.isEmpty() == true) {
+                throw IllegalArgumentException("Stringfog master key must not be empty")
+            }
+            if (stringfog.profile != null && !stringfog.cache) {
+                throw IllegalArgumentException("Stringfog profile requires the cache enabled")
+            }
             if (!stringfog.enable) {
                 return@onVariants
             }
@@ -74,15 +84,17 @@ class StringFogPlugin : Plugin<Project> {
                 throw IllegalArgumentException("Unable to resolve applicationId")
             }
 
-            val logs = mutableListOf<String>()
+            val fragmentDir = File(project.buildDir, "intermediates/stringfog/${variant.name}/mapping")
+            val mappingCollector = StringFogMappingCollector(fragmentDir)
             variant.instrumentation.transformClassesWith(
                 StringFogTransform::class.java,
                 InstrumentationScope.PROJECT
             ) { params ->
                 params.setParameters(
                     applicationId,
+                    variant.name,
                     stringfog,
-                    logs,
+                    mappingCollector,
                     "$applicationId.${SourceGeneratingTask.FOG_CLASS_NAME}"
                 )
             }
@@ -103,12 +115,45 @@ class StringFogPlugin : Plugin<Project> {
                     task.applicationId.set(applicationId)
                     task.implementation.set(stringfog.implementation)
                     task.mode.set(stringfog.mode)
+                    task.cache.set(stringfog.cache)
+                    task.cacheSize.set(stringfog.cacheSize)
+                    task.instrument.set(stringfog.instrument)
+                    task.masterKey.set(stringfog.masterKey)
+                    task.keyTable.set(stringfog.keyTable()?.map { key ->
+                        Base64.getEncoder().encodeToString(key)
+                    })
                 }
                 it.registerJavaGeneratingTask(provider, stringfogDir)
             }
-            // TODO Need a final task to write logs to file
-//            val printFile = File(project.buildDir, "outputs/mapping/${variant.name.lowercase()}/stringfog.txt")
-//            printFile.writeText(logs.joinToString("\n"))
+
+            // The fragments are written by the transform, so they are an output of it. An up to
+            // date transform keeps them and a transform from the build cache restores them.
+            val transformTaskName = "transform${variant.name.capitalized()}ClassesWithAsm"
+            val mappingTaskName = "stringFogMapping${variant.name.capitalized()}"
+            project.tasks.matching { it.name == transformTaskName }.configureEach {
+                it.outputs.dir(fragmentDir)
+                // Every build that transforms the classes writes the mapping, the task is up to
+                // date when no fragment is changed.
+                it.finalizedBy(mappingTaskName)
+            }
+            // The mapping fragments are merged after the transform, not on the parallel workers.
+            project.tasks.register(
+                mappingTaskName,
+                StringFogMappingTask::class.java
+            ) { task ->
+                task.dependsOn(transformTaskName)
+                task.fragmentDir.set(fragmentDir)
+                task.fragments.from(fragmentDir)
+                task.classes.from(project.provider {
+                    project.tasks.getByName(transformTaskName).outputs.files
+                })
+                task.mappingFile.set(File(project.buildDir,
+                    "outputs/mapping/${variant.name.lowercase()}/stringfog.txt"))
+                task.implementation.set(stringfog.implementation)
+                task.mode.set(stringfog.mode)
+                task.fogPackages.set(stringfog.fogPackages.toList())
+                task.whiteList.set(stringfog.whiteList.toList())
+            }
         }
     }
 
@@ -20,14 +20,22 @@ abstract class StringFogTransform : AsmClassVisitorFactory<StringFogInstrumentat
     ): ClassVisitor {
         return with(parameters.get()) {
             ClassVisitorFactory.create(
-                implementation, logs, extension.fogPackages, extension.kg, className.get(),
-                classContext.currentClassData.className, extension.mode, nextClassVisitor
+                stringFog, mappingCollector, packageMatcher, whiteLists, extension.kg, masterKeyBytes,
+                keyTable,
+                className.get(),
+                classContext.currentClassData.className, mode.get(),
+                cache.get(), profile, lazy.get(),
+                instrument.get(), nextClassVisitor
             )
         }
     }
 
     override fun isInstrumentable(classData: ClassData): Boolean {
-        return true
+        return with(parameters.get()) {
+            // The excluded classes skip the ASM read, write and frames computation. Their stale
+            // fragments are dropped by the mapping task, no file I/O is done here.
+            ClassVisitorFactory.isInstrumentable(packageMatcher, whiteLists, classData.className)
+        }
     }
 
 }
\ No newline at end of file
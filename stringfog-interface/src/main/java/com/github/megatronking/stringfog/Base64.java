@@ -54,7 +54,7 @@ public final class Base64 {
      * {@code -} and {@code _} are used in place of {@code +} and
      * {@code /}.
      */
-    private static final int URL_SAFE = 8;
+    /* package */ static final int URL_SAFE = 8;
 
     //  --------------------------------------------------------
     //  shared code
@@ -107,7 +107,200 @@ public final class Base64 {
      * incorrect padding
      */
     public static byte[] decode(String str, int flags) {
-        return decode(str.getBytes(), flags);
+        return decode((CharSequence) str, flags);
+    }
+
+    /**
+     * Decode the Base64-encoded chars in input and return the data in
+     * a new byte array of the exact size.
+     *
+     * <p>The padding '=' characters at the end are considered optional, but
+     * if any are present, there must be the correct number of them.
+     *
+     * @param input  the input chars to decode
+     * @param flags  controls certain features of the decoded output.
+     *               Pass {@code DEFAULT} to decode standard Base64.
+     *
+     * @throws IllegalArgumentException if the input contains
+     * incorrect padding
+     */
+    public static byte[] decode(CharSequence input, int flags) {
+        byte[] output = new byte[decodedLength(input, flags)];
+        decode(input, flags, output, 0);
+        return output;
+    }
+
+    /**
+     * Decode the Base64-encoded chars in input into the output buffer,
+     * the chars are read directly without converting to bytes.
+     *
+     * <p>The padding '=' characters at the end are considered optional, but
+     * if any are present, there must be the correct number of them.
+     *
+     * @param input  the input chars to decode
+     * @param flags  controls certain features of the decoded output.
+     *               Pass {@code DEFAULT} to decode standard Base64.
+     * @param output the buffer to hold the decoded data, it must have
+     *               {@link #decodedLength(CharSequence, int)} bytes of
+     *               space from the offset
+     * @param offset the position within the output array at which to start
+     * @return the number of the decoded bytes
+     *
+     * @throws IllegalArgumentException if the input contains
+     * incorrect padding
+     */
+    public static int decode(CharSequence input, int flags, byte[] output, int offset) {
+        int[] alphabet = ((flags & URL_SAFE) == 0) ? Decoder.DECODE : Decoder.DECODE_WEBSAFE;
+        int len = decode(input, alphabet, output, offset);
+        if (len < 0) {
+            throw new IllegalArgumentException("bad base-64");
+        }
+        return len;
+    }
+
+    /**
+     * Calculate the exact number of bytes the Base64-encoded chars
+     * decode to. The result is undefined if the input is not valid.
+     *
+     * @param input  the input chars to decode
+     * @param flags  controls certain features of the decoded output.
+     *               Pass {@code DEFAULT} to decode standard Base64.
+     */
+    public static int decodedLength(CharSequence input, int flags) {
+        int[] alphabet = ((flags & URL_SAFE) == 0) ? Decoder.DECODE : Decoder.DECODE_WEBSAFE;
+        int count = 0;
+        for (int i = 0, len = input.length(); i < len; i++) {
+            char c = input.charAt(i);
+            int d = c < 256 ? alphabet[c] : Decoder.SKIP;
+            if (d >= 0) {
+                count++;
+            } else if (d == Decoder.EQUALS) {
+                break;
+            }
+        }
+        int remainder = count & 3;
+        return (count >> 2) * 3 + (remainder == 0 ? 0 : remainder - 1);
+    }
+
+    /**
+     * The same state machine as {@link Decoder#process(byte[], int, int, boolean)},
+     * but reads chars and finishes in one call.
+     *
+     * @return the number of the decoded bytes, or -1 if the input is bad.
+     */
+    private static int decode(CharSequence input, int[] alphabet, byte[] output, int offset) {
+        int p = 0;
+        final int len = input.length();
+        int state = 0;
+        int value = 0;
+        int op = offset;
+
+        while (p < len) {
+            // The fast path, see Decoder#process(). Chars out of the
+            // table are treated as non-data chars.
+            if (state == 0) {
+                while (p+4 <= len) {
+                    char c0 = input.charAt(p);
+                    char c1 = input.charAt(p+1);
+                    char c2 = input.charAt(p+2);
+                    char c3 = input.charAt(p+3);
+                    if ((c0 | c1 | c2 | c3) >= 256 ||
+                            (value = ((alphabet[c0] << 18) |
+                                    (alphabet[c1] << 12) |
+                                    (alphabet[c2] << 6) |
+                                    (alphabet[c3]))) < 0) {
+                        break;
+                    }
+                    output[op+2] = (byte) value;
+                    output[op+1] = (byte) (value >> 8);
+                    output[op] = (byte) (value >> 16);
+                    op += 3;
+                    p += 4;
+                }
+                if (p >= len) break;
+            }
+
+            char c = input.charAt(p++);
+            int d = c < 256 ? alphabet[c] : Decoder.SKIP;
+
+            switch (state) {
+                case 0:
+                    if (d >= 0) {
+                        value = d;
+                        ++state;
+                    } else if (d != Decoder.SKIP) {
+                        return -1;
+                    }
+                    break;
+
+                case 1:
+                    if (d >= 0) {
+                        value = (value << 6) | d;
+                        ++state;
+                    } else if (d != Decoder.SKIP) {
+                        return -1;
+                    }
+                    break;
+
+                case 2:
+                    if (d >= 0) {
+                        value = (value << 6) | d;
+                        ++state;
+                    } else if (d == Decoder.EQUALS) {
+                        output[op++] = (byte) (value >> 4);
+                        state = 4;
+                    } else if (d != Decoder.SKIP) {
+                        return -1;
+                    }
+                    break;
+
+                case 3:
+                    if (d >= 0) {
+                        value = (value << 6) | d;
+                        output[op+2] = (byte) value;
+                        output[op+1] = (byte) (value >> 8);
+                        output[op] = (byte) (value >> 16);
+                        op += 3;
+                        state = 0;
+                    } else if (d == Decoder.EQUALS) {
+                        output[op+1] = (byte) (value >> 2);
+                        output[op] = (byte) (value >> 10);
+                        op += 2;
+                        state = 5;
+                    } else if (d != Decoder.SKIP) {
+                        return -1;
+                    }
+                    break;
+
+                case 4:
+                    if (d == Decoder.EQUALS) {
+                        ++state;
+                    } else if (d != Decoder.SKIP) {
+                        return -1;
+                    }
+                    break;
+
+                case 5:
+                    if (d != Decoder.SKIP) {
+                        return -1;
+                    }
+                    break;
+            }
+        }
+
+        switch (state) {
+            case 1:
+            case 4:
+                return -1;
+            case 2:
+                output[op++] = (byte) (value >> 4);
+                break;
+            case 3:
+                output[op++] = (byte) (value >> 10);
+                output[op++] = (byte) (value >> 2);
+                break;
+        }
+        return op - offset;
     }
 
     /**
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded {@link IStringFogCache} using the CLOCK eviction. The entries are kept in an open
+ * addressing table, readers never lock and writers only use CAS. When the memory budget is
+ * exceeded, the clock hand sweeps the table: the recently used entries get a second chance and
+ * the others are evicted.
+ *
+ * @author Megatron King
+ * @since 2023/6/18 15:20
+ */
+public final class ClockStringFogCache implements IStringFogCache {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 16;
+
+    // The expected size of an entry, used to decide the table capacity by the budget.
+    private static final int AVERAGE_ENTRY_SIZE = 128;
+    // The estimated memory of an entry besides the chars of the string.
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final int PROBES = 4;
+
+    // The hit and miss counters are striped by threads, every counter has its own cache line.
+    private static final int STRIPES = 8;
+    private static final int PADDING = 8;
+
+    private final AtomicReferenceArray<Entry> mEntries;
+    private final int mMask;
+    private final long mMaxSize;
+    private final AtomicLong mSize = new AtomicLong();
+    private final AtomicInteger mHand = new AtomicInteger();
+    private final AtomicLongArray mCounters = new AtomicLongArray(STRIPES * 2 * PADDING);
+
+    /**
+     * @param maxSize The memory budget of the cached strings in bytes.
+     */
+    public ClockStringFogCache(long maxSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && (long) capacity * AVERAGE_ENTRY_SIZE < maxSize) {
+            capacity <<= 1;
+        }
+        mEntries = new AtomicReferenceArray<>(capacity);
+        mMask = capacity - 1;
+        mMaxSize = maxSize;
+    }
+
+    @Override
+    public String get(long id, Object value, Object key) {
+        int index = spread(id);
+        for (int i = 0; i < PROBES; i++) {
+            Entry entry = mEntries.get((index + i) & mMask);
+            if (entry != null && entry.id == id && matches(entry.value, value)
+                    && matches(entry.key, key)) {
+                if (!entry.referenced) {
+                    entry.referenced = true;
+                }
+                count(0);
+                return entry.result;
+            }
+        }
+        count(1);
+        return null;
+    }
+
+    @Override
+    public void put(long id, Object value, Object key, String result) {
+        Entry entry = new Entry(id, value, key, result);
+        if (entry.size > mMaxSize) {
+            return;
+        }
+        if (mSize.get() + entry.size > mMaxSize) {
+            evict(entry.size);
+        }
+        int index = spread(id);
+        // Take an empty slot or an outdated entry of the same site first, then a cold entry.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < PROBES; i++) {
+                int slot = (index + i) & mMask;
+                Entry current = mEntries.get(slot);
+                if (current != null && current.id != id && (pass == 0 || current.referenced)) {
+                    continue;
+                }
+                long delta = current == null ? entry.size : entry.size - current.size;
+                // The budget is reserved before the entry is put, so the concurrent writers never
+                // exceed it. The entry is skipped if the eviction did not make enough room.
+                if (!reserve(delta)) {
+                    return;
+                }
+                if (mEntries.compareAndSet(slot, current, entry)) {
+                    return;
+                }
+                mSize.addAndGet(-delta);
+            }
+        }
+        // All the probed entries are hot, give them a second chance and skip this one.
+        for (int i = 0; i < PROBES; i++) {
+            Entry current = mEntries.get((index + i) & mMask);
+            if (current != null) {
+                current.referenced = false;
+            }
+        }
+    }
+
+    @Override
+    public long hitCount() {
+        return sum(0);
+    }
+
+    @Override
+    public long missCount() {
+        return sum(1);
+    }
+
+    /**
+     * The estimated memory of the cached strings in bytes.
+     */
+    public long size() {
+        return mSize.get();
+    }
+
+    private boolean reserve(long delta) {
+        while (true) {
+            long size = mSize.get();
+            if (delta > 0 && size + delta > mMaxSize) {
+                return false;
+            }
+            if (mSize.compareAndSet(size, size + delta)) {
+                return true;
+            }
+        }
+    }
+
+    private void evict(int required) {
+        int capacity = mMask + 1;
+        // Two rounds are enough to clear the referenced flags and evict.
+        for (int i = 0; i < capacity * 2 && mSize.get() + required > mMaxSize; i++) {
+            int slot = mHand.getAndIncrement() & mMask;
+            Entry entry = mEntries.get(slot);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else if (mEntries.compareAndSet(slot, entry, null)) {
+                mSize.addAndGet(-entry.size);
+            }
+        }
+    }
+
+    private void count(int type) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        mCounters.incrementAndGet((stripe * 2 + type) * PADDING);
+    }
+
+    private long sum(int type) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += mCounters.get((stripe * 2 + type) * PADDING);
+        }
+        return sum;
+    }
+
+    private static int spread(long id) {
+        int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(Object cached, Object value) {
+        if (cached == value) {
+            return true;
+        }
+        return cached instanceof byte[] && value instanceof byte[] &&
+                Arrays.equals((byte[]) cached, (byte[]) value);
+    }
+
+    private static final class Entry {
+
+        final long id;
+        final Object value;
+        final Object key;
+        final String result;
+        final int size;
+        volatile boolean referenced;
+
+        Entry(long id, Object value, Object key, String result) {
+            this.id = id;
+            this.value = value;
+            this.key = key;
+            this.result = result;
+            // A new entry gets a second chance too, so the colliding puts do not replace each
+            // other before any of them is read.
+            this.referenced = true;
+            int size = ENTRY_OVERHEAD + result.length() * 2;
+            if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            }
+            if (key instanceof byte[]) {
+                size += ((byte[]) key).length;
+            }
+            this.size = size;
+        }
+
+    }
+
+}
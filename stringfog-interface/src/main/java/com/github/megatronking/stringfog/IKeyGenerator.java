@@ -18,4 +18,32 @@ public interface IKeyGenerator {
      */
     byte[] generate(String text);
 
+    /**
+     * Generate a security key for the text in a class. The generators those derive keys from the
+     * class name should override this method, the default ignores the class name.
+     *
+     * @param className The java class name contains the text.
+     * @param text The content text will be encrypted.
+     * @return A security key for the encryption.
+     */
+    default byte[] generate(String className, String text) {
+        return generate(text);
+    }
+
+    /**
+     * Generate the security keys for many texts in a class at once. The generators those have a
+     * cheaper bulk path should override this method, the default generates the keys one by one.
+     *
+     * @param className The java class name contains the texts.
+     * @param texts The content texts will be encrypted.
+     * @return The security keys, in the same order of the texts.
+     */
+    default byte[][] generate(String className, String[] texts) {
+        byte[][] keys = new byte[texts.length][];
+        for (int i = 0; i < texts.length; i++) {
+            keys[i] = generate(className, texts[i]);
+        }
+        return keys;
+    }
+
 }
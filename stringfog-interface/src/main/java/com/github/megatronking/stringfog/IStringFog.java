@@ -14,6 +14,8 @@
 
 package com.github.megatronking.stringfog;
 
+import java.util.Arrays;
+
 /**
  * Interface of how to encrypt and decrypt a string.
  *
@@ -40,6 +42,24 @@ public interface IStringFog {
      */
     String decrypt(byte[] data, byte[] key);
 
+    /**
+     * Decrypt a range of the data to origin by a range of the special key. The data range might
+     * be modified in place. Implementations should override it to avoid copying the ranges.
+     *
+     * @param data The buffer contains the encrypted data.
+     * @param offset The start offset of the encrypted data.
+     * @param length The length of the encrypted data.
+     * @param key The buffer contains the encrypt key.
+     * @param keyOffset The start offset of the encrypt key.
+     * @param keyLength The length of the encrypt key.
+     * @return The original data.
+     */
+    default String decrypt(byte[] data, int offset, int length, byte[] key, int keyOffset,
+                           int keyLength) {
+        return decrypt(Arrays.copyOfRange(data, offset, offset + length),
+                Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength));
+    }
+
     /**
      * Whether the string should be encrypted.
      *
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+/**
+ * A cache of decrypted strings, it sits between the generated <code>StringFog</code> class and
+ * the {@link IStringFog} implementation. The entries are located by the call site id and confirmed
+ * by the encrypted value and key. Implementations must be safe for concurrent use.
+ *
+ * @author Megatron King
+ * @since 2023/6/18 15:02
+ */
+public interface IStringFogCache {
+
+    /**
+     * Get the decrypted string of the call site.
+     *
+     * @param id The call site id.
+     * @param value The encrypted value, a base64 string or a byte array.
+     * @param key The encrypt key, a base64 string or a byte array, or the master key of the
+     *            module if the call sites carry nonces.
+     * @return The decrypted string, or null if it is not cached.
+     */
+    String get(long id, Object value, Object key);
+
+    /**
+     * Put the decrypted string of the call site. The cache might ignore it.
+     *
+     * @param id The call site id.
+     * @param value The encrypted value, a base64 string or a byte array.
+     * @param key The encrypt key, a base64 string or a byte array, or the master key of the
+     *            module if the call sites carry nonces.
+     * @param result The decrypted string.
+     */
+    void put(long id, Object value, Object key, String result);
+
+    /**
+     * The number of the cache hits.
+     */
+    long hitCount();
+
+    /**
+     * The number of the cache misses.
+     */
+    long missCount();
+
+}
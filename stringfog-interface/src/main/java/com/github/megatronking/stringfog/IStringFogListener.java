@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+/**
+ * A listener of the decrypt calls in the generated <code>StringFog</code> class, it is only
+ * available when the instrumentation is enabled. The listener is called on the decrypting thread,
+ * so the implementation must be thread safe and fast.
+ *
+ * @author Megatron King
+ * @since 2023/6/20 10:12
+ */
+public interface IStringFogListener {
+
+    /**
+     * Called after every decrypt call of a call site, the calls hit the cache included.
+     *
+     * @param id The call site id, it can be found in the mapping file.
+     * @param nanos The elapsed time of the call in nanoseconds, the cache lookup included.
+     * @param bytes The size of the encrypted data in bytes.
+     */
+    void onDecrypt(long id, long nanos, int bytes);
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+/**
+ * Decrypt the base64 encoded or Latin-1 packed value and key in one pass. The characters are
+ * decoded into a scratch buffer of the current thread and decrypted in place, so the result string
+ * is the only allocation for most of strings. The key can also be derived from a master key and a
+ * nonce into the same buffer, see {@link StringFogKeyDerivation}.
+ *
+ * @author Megatron King
+ * @since 2023/6/14 21:08
+ */
+public final class StringFogDecrypter {
+
+    // Larger buffers are not kept by the threads.
+    private static final int MAX_BUFFER_SIZE = 4096;
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<>();
+
+    private StringFogDecrypter() {
+    }
+
+    /**
+     * Decrypt the base64 encoded value by the base64 encoded key.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The base64 encoded encrypted data.
+     * @param key The base64 encoded encrypt key.
+     * @return The original data.
+     */
+    public static String decrypt(IStringFog stringFog, String value, String key) {
+        int size = value.length() / 4 * 3 + key.length() / 4 * 3 + 4;
+        byte[] buffer = size > MAX_BUFFER_SIZE ? new byte[size] : obtainBuffer(size);
+        int valueLength = Base64.decode(value, Base64.DEFAULT, buffer, 0);
+        int keyLength = Base64.decode(key, Base64.DEFAULT, buffer, valueLength);
+        return stringFog.decrypt(buffer, 0, valueLength, buffer, valueLength, keyLength);
+    }
+
+    /**
+     * Decrypt the Latin-1 packed value by the Latin-1 packed key, each char holds a byte.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The Latin-1 packed encrypted data.
+     * @param key The Latin-1 packed encrypt key.
+     * @return The original data.
+     */
+    @SuppressWarnings("deprecation")
+    public static String decryptCompact(IStringFog stringFog, String value, String key) {
+        int valueLength = value.length();
+        int keyLength = key.length();
+        int size = valueLength + keyLength;
+        byte[] buffer = size > MAX_BUFFER_SIZE ? new byte[size] : obtainBuffer(size);
+        // The deprecated method copies the low byte of each char, it is what we need here.
+        value.getBytes(0, valueLength, buffer, 0);
+        key.getBytes(0, keyLength, buffer, valueLength);
+        return stringFog.decrypt(buffer, 0, valueLength, buffer, valueLength, keyLength);
+    }
+
+    /**
+     * Decrypt the base64 encoded value by the key derived from the master key and the nonce.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The base64 encoded encrypted data.
+     * @param masterKey The master key of the module.
+     * @param nonce The nonce of the call site.
+     * @return The original data.
+     */
+    public static String decrypt(IStringFog stringFog, String value, byte[] masterKey, long nonce) {
+        int keyLength = masterKey.length;
+        int size = value.length() / 4 * 3 + keyLength + 4;
+        byte[] buffer = size > MAX_BUFFER_SIZE ? new byte[size] : obtainBuffer(size);
+        int valueLength = Base64.decode(value, Base64.DEFAULT, buffer, 0);
+        StringFogKeyDerivation.derive(masterKey, nonce, buffer, valueLength);
+        return stringFog.decrypt(buffer, 0, valueLength, buffer, valueLength, keyLength);
+    }
+
+    /**
+     * Decrypt the Latin-1 packed value by the key derived from the master key and the nonce.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The Latin-1 packed encrypted data.
+     * @param masterKey The master key of the module.
+     * @param nonce The nonce of the call site.
+     * @return The original data.
+     */
+    @SuppressWarnings("deprecation")
+    public static String decryptCompact(IStringFog stringFog, String value, byte[] masterKey,
+                                        long nonce) {
+        int valueLength = value.length();
+        int keyLength = masterKey.length;
+        int size = valueLength + keyLength;
+        byte[] buffer = size > MAX_BUFFER_SIZE ? new byte[size] : obtainBuffer(size);
+        value.getBytes(0, valueLength, buffer, 0);
+        StringFogKeyDerivation.derive(masterKey, nonce, buffer, valueLength);
+        return stringFog.decrypt(buffer, 0, valueLength, buffer, valueLength, keyLength);
+    }
+
+    /**
+     * Decrypt the value by the key derived from the master key and the nonce.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The encrypted data.
+     * @param masterKey The master key of the module.
+     * @param nonce The nonce of the call site.
+     * @return The original data.
+     */
+    public static String decrypt(IStringFog stringFog, byte[] value, byte[] masterKey, long nonce) {
+        int keyLength = masterKey.length;
+        byte[] buffer = keyLength > MAX_BUFFER_SIZE ? new byte[keyLength] : obtainBuffer(keyLength);
+        StringFogKeyDerivation.derive(masterKey, nonce, buffer, 0);
+        return stringFog.decrypt(value, 0, value.length, buffer, 0, keyLength);
+    }
+
+    /**
+     * Decrypt the base64 encoded value by the decoded key, e.g. a key of the key table.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The base64 encoded encrypted data.
+     * @param key The encrypt key.
+     * @return The original data.
+     */
+    public static String decrypt(IStringFog stringFog, String value, byte[] key) {
+        int size = value.length() / 4 * 3 + 4;
+        byte[] buffer = size > MAX_BUFFER_SIZE ? new byte[size] : obtainBuffer(size);
+        int valueLength = Base64.decode(value, Base64.DEFAULT, buffer, 0);
+        return stringFog.decrypt(buffer, 0, valueLength, key, 0, key.length);
+    }
+
+    /**
+     * Decrypt the Latin-1 packed value by the decoded key, e.g. a key of the key table.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The Latin-1 packed encrypted data.
+     * @param key The encrypt key.
+     * @return The original data.
+     */
+    @SuppressWarnings("deprecation")
+    public static String decryptCompact(IStringFog stringFog, String value, byte[] key) {
+        int valueLength = value.length();
+        byte[] buffer = valueLength > MAX_BUFFER_SIZE ? new byte[valueLength] :
+                obtainBuffer(valueLength);
+        value.getBytes(0, valueLength, buffer, 0);
+        return stringFog.decrypt(buffer, 0, valueLength, key, 0, key.length);
+    }
+
+    /**
+     * Decrypt the value by the decoded key, the shared key is never modified.
+     *
+     * @param stringFog The implementation of the decryption.
+     * @param value The encrypted data.
+     * @param key The encrypt key.
+     * @return The original data.
+     */
+    public static String decrypt(IStringFog stringFog, byte[] value, byte[] key) {
+        return stringFog.decrypt(value, 0, value.length, key, 0, key.length);
+    }
+
+    private static byte[] obtainBuffer(int size) {
+        byte[] buffer = BUFFER.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[Math.max(size, 256)];
+            BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+/**
+ * Derive the key of a string from the master key of the module and the nonce of the call site.
+ * The plugin derives the key to encrypt and the runtime derives the same key to decrypt, so a call
+ * site carries the nonce only, instead of the whole key.
+ *
+ * The derivation is a splitmix64 stream seeded by the nonce and the master key, xor the master
+ * key. It is cheap and allocation free, it is not meant to be a cryptographic KDF, the master key
+ * is in the apk anyway.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 15:36
+ */
+public final class StringFogKeyDerivation {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private StringFogKeyDerivation() {
+    }
+
+    /**
+     * Derive the key, it has the same length as the master key.
+     *
+     * @param masterKey The master key of the module.
+     * @param nonce The nonce of the call site.
+     * @return The derived key.
+     */
+    public static byte[] derive(byte[] masterKey, long nonce) {
+        byte[] key = new byte[masterKey.length];
+        derive(masterKey, nonce, key, 0);
+        return key;
+    }
+
+    /**
+     * Derive the key into the buffer, it has the same length as the master key.
+     *
+     * @param masterKey The master key of the module.
+     * @param nonce The nonce of the call site.
+     * @param out The buffer to receive the key.
+     * @param offset The offset of the key in the buffer.
+     */
+    public static void derive(byte[] masterKey, long nonce, byte[] out, int offset) {
+        long seed = nonce;
+        for (byte b : masterKey) {
+            seed = seed * 31 + b;
+        }
+        long bits = 0;
+        for (int i = 0; i < masterKey.length; i++) {
+            if ((i & 7) == 0) {
+                seed += GOLDEN_GAMMA;
+                bits = mix(seed);
+            }
+            out[offset + i] = (byte) (masterKey[i] ^ bits);
+            bits >>>= 8;
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decrypt the strings ahead of use on background threads, so the first access of a string does
+ * not pay the decryption cost on the main thread.
+ *
+ * The given classes are initialized first, which decrypts their static final strings. Then the
+ * entries of all registered tables are decrypted. On a {@link ForkJoinPool} the tables are split
+ * in halves with fork/join until the ranges are small, so the idle workers steal the large tables.
+ * On other executors a large table is split into fixed chunks which run in parallel. ForkJoinPool
+ * is only available since Android 5.0, the fork/join classes are only loaded when a pool is given.
+ *
+ * The other strings are not prewarmed: the lazy static final fields are decrypted on first
+ * access, and the strings in methods are decrypted when the call sites run, so the call site
+ * caches are only filled by the call sites.
+ *
+ * @author Megatron King
+ * @since 2023/6/24 11:30
+ */
+public final class StringFogPrewarmer {
+
+    private static final int CHUNK_SIZE = 64;
+
+    // Every class creates its table in the static initializer, so the appends must be cheap.
+    private final List<StringFogTable> mTables = new ArrayList<>();
+
+    /**
+     * Register a table to prewarm, it is called when a class creates its table.
+     *
+     * @param table The string table.
+     */
+    public void register(StringFogTable table) {
+        synchronized (mTables) {
+            mTables.add(table);
+        }
+    }
+
+    /**
+     * Prewarm the strings asynchronously.
+     *
+     * @param executor The executor to run the decryption, it should have multiple threads. A
+     *                 {@link ForkJoinPool} decrypts the tables with fork/join.
+     * @param classLoader The class loader to load the classes.
+     * @param classNames The classes to initialize, the missing classes are ignored.
+     * @param callback Called on the executor when all work is done, can be null.
+     */
+    public void prewarm(Executor executor, ClassLoader classLoader, String[] classNames,
+                        Runnable callback) {
+        prewarm(executor, classLoader, classNames, callback, null);
+    }
+
+    /**
+     * Prewarm the strings and wait until all work is done. The first failure of the tasks, like an
+     * {@link ExceptionInInitializerError} of a class or a failed decryption, is thrown here after
+     * all work is done, instead of to the executor.
+     *
+     * @param executor The executor to run the decryption, it must not run on the current thread
+     *                 only. A {@link ForkJoinPool} decrypts the tables with fork/join.
+     * @param classLoader The class loader to load the classes.
+     * @param classNames The classes to initialize, the missing classes are ignored.
+     * @throws InterruptedException If the current thread is interrupted while waiting.
+     */
+    public void prewarmAndWait(Executor executor, ClassLoader classLoader, String[] classNames)
+            throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        prewarm(executor, classLoader, classNames, new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, failure);
+        latch.await();
+        Throwable throwable = failure.get();
+        if (throwable != null) {
+            fail(null, throwable);
+        }
+    }
+
+    /**
+     * @param failure Receives the first failure of the tasks, the others still run. If it is null,
+     *                the failures are thrown to the executor.
+     */
+    private void prewarm(final Executor executor, ClassLoader classLoader, String[] classNames,
+                         final Runnable callback, final AtomicReference<Throwable> failure) {
+        List<Runnable> tasks = new ArrayList<>();
+        for (String className : classNames) {
+            tasks.add(new LoadClassTask(classLoader, className));
+        }
+        // The tables are created by the class initializations, so they are split after that.
+        runAll(executor, tasks, new Runnable() {
+            @Override
+            public void run() {
+                StringFogTable[] tables;
+                synchronized (mTables) {
+                    tables = mTables.toArray(new StringFogTable[0]);
+                }
+                if (isForkJoinPool(executor)) {
+                    ((ForkJoinPool) executor).execute(new DecryptTablesAction(tables, callback,
+                            failure));
+                    return;
+                }
+                List<Runnable> tasks = new ArrayList<>();
+                for (StringFogTable table : tables) {
+                    for (int start = 0; start < table.size(); start += CHUNK_SIZE) {
+                        tasks.add(new DecryptTableTask(table, start,
+                                Math.min(start + CHUNK_SIZE, table.size())));
+                    }
+                }
+                runAll(executor, tasks, callback, failure);
+            }
+        }, failure);
+    }
+
+    private static void runAll(Executor executor, List<Runnable> tasks, final Runnable callback,
+                               final AtomicReference<Throwable> failure) {
+        if (tasks.isEmpty()) {
+            if (callback != null) {
+                callback.run();
+            }
+            return;
+        }
+        // The last finished task runs the callback, no thread is blocked to wait.
+        final AtomicInteger remaining = new AtomicInteger(tasks.size());
+        for (final Runnable task : tasks) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException | Error e) {
+                        fail(failure, e);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0 && callback != null) {
+                            callback.run();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    // The throwable is a RuntimeException or an Error.
+    private static void fail(AtomicReference<Throwable> failure, Throwable throwable) {
+        if (failure == null) {
+            if (throwable instanceof Error) {
+                throw (Error) throwable;
+            }
+            throw (RuntimeException) throwable;
+        }
+        failure.compareAndSet(null, throwable);
+    }
+
+    private static boolean isForkJoinPool(Executor executor) {
+        // Compare the names, an instanceof check would load ForkJoinPool on every platform.
+        for (Class<?> clazz = executor.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            if ("java.util.concurrent.ForkJoinPool".equals(clazz.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class LoadClassTask implements Runnable {
+
+        private final ClassLoader mClassLoader;
+        private final String mClassName;
+
+        LoadClassTask(ClassLoader classLoader, String className) {
+            mClassLoader = classLoader;
+            mClassName = className;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Class.forName(mClassName, true, mClassLoader);
+            } catch (ClassNotFoundException e) {
+                // Ignore, the prewarm is best effort.
+            }
+        }
+
+    }
+
+    /**
+     * Decrypt all the tables in a fork/join pool, and run the callback when they are done.
+     */
+    private static final class DecryptTablesAction extends RecursiveAction {
+
+        private final StringFogTable[] mTables;
+        private final Runnable mCallback;
+        private final AtomicReference<Throwable> mFailure;
+
+        DecryptTablesAction(StringFogTable[] tables, Runnable callback,
+                            AtomicReference<Throwable> failure) {
+            mTables = tables;
+            mCallback = callback;
+            mFailure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<DecryptRangeAction> actions = new ArrayList<>();
+                for (StringFogTable table : mTables) {
+                    actions.add(new DecryptRangeAction(table, 0, table.size(), mFailure));
+                }
+                invokeAll(actions);
+            } catch (RuntimeException | Error e) {
+                fail(mFailure, e);
+            } finally {
+                if (mCallback != null) {
+                    mCallback.run();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Decrypt a range of a table, a large range is forked in halves. A failed range does not stop
+     * the others, like the chunks on the other executors.
+     */
+    private static final class DecryptRangeAction extends RecursiveAction {
+
+        private final StringFogTable mTable;
+        private final int mStart;
+        private final int mEnd;
+        private final AtomicReference<Throwable> mFailure;
+
+        DecryptRangeAction(StringFogTable table, int start, int end,
+                           AtomicReference<Throwable> failure) {
+            mTable = table;
+            mStart = start;
+            mEnd = end;
+            mFailure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart <= CHUNK_SIZE) {
+                try {
+                    for (int i = mStart; i < mEnd; i++) {
+                        mTable.get(i);
+                    }
+                } catch (RuntimeException | Error e) {
+                    fail(mFailure, e);
+                }
+                return;
+            }
+            int middle = (mStart + mEnd) >>> 1;
+            invokeAll(new DecryptRangeAction(mTable, mStart, middle, mFailure),
+                    new DecryptRangeAction(mTable, middle, mEnd, mFailure));
+        }
+
+    }
+
+    private static final class DecryptTableTask implements Runnable {
+
+        private final StringFogTable mTable;
+        private final int mStart;
+        private final int mEnd;
+
+        DecryptTableTask(StringFogTable table, int start, int end) {
+            mTable = table;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public void run() {
+            for (int i = mStart; i < mEnd; i++) {
+                mTable.get(i);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory {@link IStringFogListener} aggregating the decrypt calls of each call site.
+ *
+ * <pre>
+ *     StringFogStats stats = new StringFogStats();
+ *     StringFog.setListener(stats);
+ *     ...
+ *     Log.d(TAG, stats.dump(20, StringFogStats.readMapping(reader)));
+ * </pre>
+ *
+ * @author Megatron King
+ * @since 2023/6/20 10:36
+ */
+public final class StringFogStats implements IStringFogListener {
+
+    private final ConcurrentHashMap<Long, Site> mSites = new ConcurrentHashMap<>();
+
+    @Override
+    public void onDecrypt(long id, long nanos, int bytes) {
+        Site site = mSites.get(id);
+        if (site == null) {
+            Site newSite = new Site(id);
+            site = mSites.putIfAbsent(id, newSite);
+            if (site == null) {
+                site = newSite;
+            }
+        }
+        site.mCount.incrementAndGet();
+        site.mNanos.addAndGet(nanos);
+        site.mBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Get the hottest call sites, ordered by the cumulative decrypt time.
+     *
+     * @param count The max count of the returned sites.
+     * @return The call sites.
+     */
+    public List<Site> top(int count) {
+        List<Site> sites = new ArrayList<>(mSites.values());
+        Collections.sort(sites, new Comparator<Site>() {
+            @Override
+            public int compare(Site o1, Site o2) {
+                long nanos1 = o1.getNanos();
+                long nanos2 = o2.getNanos();
+                return nanos1 < nanos2 ? 1 : (nanos1 == nanos2 ? 0 : -1);
+            }
+        });
+        return sites.size() > count ? sites.subList(0, count) : sites;
+    }
+
+    /**
+     * Clear all the recorded calls.
+     */
+    public void reset() {
+        mSites.clear();
+    }
+
+    /**
+     * Dump the hottest call sites as text, one site per line.
+     *
+     * @param count The max count of the dumped sites.
+     * @param locations The locations of the call sites, see {@link #readMapping(Reader)}. It can be
+     *                  null, then only the site ids are dumped.
+     * @return The dumped text.
+     */
+    public String dump(int count, Map<Long, String> locations) {
+        StringBuilder builder = new StringBuilder();
+        for (Site site : top(count)) {
+            builder.append('#').append(site.getId());
+            String location = locations == null ? null : locations.get(site.getId());
+            if (location != null) {
+                builder.append(' ').append(location);
+            }
+            builder.append(": count=").append(site.getCount())
+                    .append(", nanos=").append(site.getNanos())
+                    .append(", bytes=").append(site.getBytes())
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Read the call site locations from the StringFog mapping file. The lines of the call sites
+     * look like <code>#id class.method: origin -> encrypted</code>.
+     *
+     * @param reader The reader of the mapping file.
+     * @return The locations keyed by the site ids.
+     * @throws IOException If failed to read.
+     */
+    public static Map<Long, String> readMapping(Reader reader) throws IOException {
+        Map<Long, String> locations = new HashMap<>();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            if (!line.startsWith("#")) {
+                continue;
+            }
+            int idEnd = line.indexOf(' ');
+            int locationEnd = line.indexOf(": ", idEnd);
+            if (idEnd == -1 || locationEnd == -1) {
+                continue;
+            }
+            try {
+                long id = Long.parseLong(line.substring(1, idEnd));
+                locations.put(id, line.substring(idEnd + 1, locationEnd));
+            } catch (NumberFormatException e) {
+                // Not a call site line.
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * The aggregated decrypt calls of a call site.
+     */
+    public static final class Site {
+
+        private final long mId;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mNanos = new AtomicLong();
+        private final AtomicLong mBytes = new AtomicLong();
+
+        private Site(long id) {
+            mId = id;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getNanos() {
+            return mNanos.get();
+        }
+
+        public long getBytes() {
+            return mBytes.get();
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+/**
+ * A packed table of encrypted strings, the strings are decrypted on demand and cached.
+ *
+ * The table data is a base64 encoded byte array, it starts with the entry count and each entry
+ * contains the key length, the value length, the key and the encrypted value. The lengths are
+ * unsigned shorts in big endian.
+ *
+ * @author Megatron King
+ * @since 2023/6/12 20:16
+ */
+public final class StringFogTable {
+
+    private static final int LOCK_STRIPES = 16;
+
+    private final IStringFog mStringFog;
+    private final byte[] mData;
+    private final int[] mOffsets;
+    private final String[] mValues;
+    private final Object[] mLocks = new Object[LOCK_STRIPES];
+
+    public StringFogTable(IStringFog stringFog, String data) {
+        mStringFog = stringFog;
+        mData = Base64.decode(data, Base64.DEFAULT);
+        int count = readShort(mData, 0);
+        mOffsets = new int[count];
+        int offset = 2;
+        for (int i = 0; i < count; i++) {
+            mOffsets[i] = offset;
+            offset += 4 + readShort(mData, offset) + readShort(mData, offset + 2);
+        }
+        mValues = new String[count];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Get the original string of the entry.
+     *
+     * @param index The entry index.
+     * @return The original string.
+     */
+    public String get(int index) {
+        // Strings are immutable, so a decrypted entry is read without the lock.
+        String value = mValues[index];
+        if (value == null) {
+            value = decrypt(index);
+        }
+        return value;
+    }
+
+    private String decrypt(int index) {
+        // The implementation may decrypt the range in place, so an entry must be decrypted only
+        // once, the data of a decrypted entry is garbage. The locks are striped, the chunks of a
+        // table are prewarmed in parallel.
+        synchronized (mLocks[index & (LOCK_STRIPES - 1)]) {
+            String value = mValues[index];
+            if (value != null) {
+                return value;
+            }
+            int offset = mOffsets[index];
+            int keyStart = offset + 4;
+            int keyLength = readShort(mData, offset);
+            int valueStart = keyStart + keyLength;
+            value = mStringFog.decrypt(mData, valueStart, readShort(mData, offset + 2), mData,
+                    keyStart, keyLength);
+            mValues[index] = value;
+            return value;
+        }
+    }
+
+    /**
+     * Get the entry count of the table.
+     *
+     * @return The entry count.
+     */
+    public int size() {
+        return mValues.length;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 8 | (data[offset + 1] & 0xff);
+    }
+
+}
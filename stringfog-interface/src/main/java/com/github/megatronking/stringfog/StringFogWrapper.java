@@ -50,6 +50,13 @@ public final class StringFogWrapper implements IStringFog {
         return mStringFogImpl == null ? new String(data) : mStringFogImpl.decrypt(data, key);
     }
 
+    @Override
+    public String decrypt(byte[] data, int offset, int length, byte[] key, int keyOffset,
+                          int keyLength) {
+        return mStringFogImpl == null ? new String(data, offset, length) :
+                mStringFogImpl.decrypt(data, offset, length, key, keyOffset, keyLength);
+    }
+
     @Override
     public boolean shouldFog(String data) {
         return mStringFogImpl != null && mStringFogImpl.shouldFog(data);
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Differential tests of the char based decoding against <code>java.util.Base64</code>. Our decoder
+ * skips the chars out of the alphabet like the MIME decoder, so the inputs with whitespace and
+ * noise are compared with the MIME decoder, the others with the basic and URL decoders.
+ *
+ * @author Megatron King
+ * @since 2023/7/5 10:20
+ */
+public class Base64Test {
+
+    private static final java.util.Base64.Decoder BASIC = java.util.Base64.getDecoder();
+    private static final java.util.Base64.Decoder URL = java.util.Base64.getUrlDecoder();
+    private static final java.util.Base64.Decoder MIME = java.util.Base64.getMimeDecoder();
+
+    @Test
+    public void decodePadded() {
+        Random random = new Random(1);
+        for (int length = 0; length < 64; length++) {
+            byte[] data = randomBytes(random, length);
+            assertSameAsJdk(java.util.Base64.getEncoder().encodeToString(data), BASIC,
+                    Base64.DEFAULT);
+        }
+    }
+
+    @Test
+    public void decodeUnpadded() {
+        Random random = new Random(2);
+        for (int length = 0; length < 64; length++) {
+            byte[] data = randomBytes(random, length);
+            assertSameAsJdk(java.util.Base64.getEncoder().withoutPadding().encodeToString(data),
+                    BASIC, Base64.DEFAULT);
+        }
+    }
+
+    @Test
+    public void decodeUrlSafe() {
+        Random random = new Random(3);
+        for (int length = 0; length < 64; length++) {
+            byte[] data = randomBytes(random, length);
+            assertSameAsJdk(java.util.Base64.getUrlEncoder().encodeToString(data), URL,
+                    Base64.URL_SAFE);
+            assertSameAsJdk(java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(data),
+                    URL, Base64.URL_SAFE);
+        }
+    }
+
+    @Test
+    public void decodeWhitespace() {
+        Random random = new Random(4);
+        for (int length = 0; length < 256; length += 7) {
+            byte[] data = randomBytes(random, length);
+            // The default encoding wraps the lines every 76 chars.
+            assertSameAsJdk(new String(Base64.encode(data, Base64.DEFAULT)), MIME, Base64.DEFAULT);
+            String encoded = java.util.Base64.getEncoder().encodeToString(data);
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < encoded.length(); i++) {
+                // The MIME decoder requires the padding chars to be adjacent, see below.
+                if (random.nextInt(4) == 0 && encoded.charAt(i) != '=') {
+                    builder.append(" \t\r\n".charAt(random.nextInt(4)));
+                }
+                builder.append(encoded.charAt(i));
+            }
+            assertSameAsJdk(builder.append("\n").toString(), MIME, Base64.DEFAULT);
+        }
+        assertSameAsJdk("QU!J*D", MIME, Base64.DEFAULT);
+        assertSameAsJdk("  ", MIME, Base64.DEFAULT);
+    }
+
+    @Test
+    public void decodeInvalid() {
+        String[] inputs = {"A", "QUJDR", "A=", "AA=", "AAA=A", "AA=A", "AAAA=", "=", "==",
+                "AA==AA", "AAA=AAAA", "QUJD\nR", "A\n=\n"};
+        for (String input : inputs) {
+            assertSameAsJdk(input, MIME, Base64.DEFAULT);
+            assertInvalid(input, Base64.DEFAULT);
+        }
+        assertSameAsJdk("AA=", URL, Base64.URL_SAFE);
+        assertInvalid("AA=", Base64.URL_SAFE);
+    }
+
+    @Test
+    public void decodePaddingDifferences() {
+        // The MIME decoder ignores any padding after the last unit, we reject it as the Android
+        // decoder does.
+        assertArrayEquals(new byte[] {0}, MIME.decode("AA==="));
+        assertArrayEquals(new byte[] {0, 0}, MIME.decode("AAA=="));
+        assertInvalid("AA===", Base64.DEFAULT);
+        assertInvalid("AAA==", Base64.DEFAULT);
+        // The MIME decoder rejects a split padding, we skip the whitespace between.
+        try {
+            MIME.decode("AA=\n=");
+            fail("The MIME decoder accepts a split padding");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertArrayEquals(new byte[] {0}, Base64.decode("AA=\n=", Base64.DEFAULT));
+    }
+
+    @Test
+    public void decodeRandom() {
+        // Random chars of the alphabet, padding and whitespace, a mix of valid and invalid ones.
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/= \n";
+        Random random = new Random(5);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int j = 0; j < length; j++) {
+                builder.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            String input = builder.toString();
+            // The padding rules differ from the MIME decoder, see decodePaddingDifferences(),
+            // only the inputs ending with at most the required padding are compared.
+            int padding = input.indexOf('=');
+            String tail = padding == -1 ? "" : input.substring(padding).trim();
+            int remainder = input.substring(0, padding == -1 ? input.length() : padding)
+                    .replaceAll("\\s", "").length() & 3;
+            if (tail.length() <= (remainder == 3 ? 1 : 2) && tail.replace("=", "").isEmpty()) {
+                assertSameAsJdk(input, MIME, Base64.DEFAULT);
+            }
+        }
+    }
+
+    @Test
+    public void decodeIntoBuffer() {
+        byte[] data = "StringFog".getBytes(StandardCharsets.UTF_8);
+        String encoded = java.util.Base64.getEncoder().encodeToString(data);
+        byte[] buffer = new byte[data.length + 8];
+        Arrays.fill(buffer, (byte) 0x55);
+        assertEquals(data.length, Base64.decode(encoded, Base64.DEFAULT, buffer, 4));
+        assertArrayEquals(data, Arrays.copyOfRange(buffer, 4, 4 + data.length));
+        // The bytes around the range are not touched.
+        assertEquals(0x55, buffer[3]);
+        assertEquals(0x55, buffer[4 + data.length]);
+    }
+
+    private static void assertSameAsJdk(String input, java.util.Base64.Decoder decoder,
+                                        int flags) {
+        byte[] expected;
+        try {
+            expected = decoder.decode(input);
+        } catch (IllegalArgumentException e) {
+            assertInvalid(input, flags);
+            return;
+        }
+        String message = "input: \"" + input + "\"";
+        assertArrayEquals(message, expected, Base64.decode(input, flags));
+        // The byte based decoder of the encoded data.
+        assertArrayEquals(message, expected,
+                Base64.decode(input.getBytes(StandardCharsets.ISO_8859_1), flags));
+        assertEquals(message, expected.length, Base64.decodedLength(input, flags));
+    }
+
+    private static void assertInvalid(String input, int flags) {
+        try {
+            Base64.decode(input, flags);
+            fail("The char decoder accepts the bad input: \"" + input + "\"");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            Base64.decode(input.getBytes(StandardCharsets.ISO_8859_1), flags);
+            fail("The byte decoder accepts the bad input: \"" + input + "\"");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+}
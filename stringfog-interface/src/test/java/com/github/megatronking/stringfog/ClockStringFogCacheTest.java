@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the counters, the budget and the CLOCK eviction of {@link ClockStringFogCache}.
+ *
+ * @author Megatron King
+ * @since 2023/7/6 11:05
+ */
+public class ClockStringFogCacheTest {
+
+    // The entry overhead and 8 chars of the result.
+    private static final int ENTRY_SIZE = 64 + 8 * 2;
+    private static final String KEY = "key";
+
+    @Test
+    public void countHitsAndMisses() {
+        ClockStringFogCache cache = new ClockStringFogCache(1024);
+        String value = "value";
+        assertNull(cache.get(1, value, KEY));
+        cache.put(1, value, KEY, "result-1");
+        assertEquals("result-1", cache.get(1, value, KEY));
+        assertEquals("result-1", cache.get(1, value, KEY));
+        // The value confirms the hit by identity.
+        assertNull(cache.get(1, new String(value), KEY));
+        assertNull(cache.get(2, value, KEY));
+        assertEquals(2, cache.hitCount());
+        assertEquals(3, cache.missCount());
+    }
+
+    @Test
+    public void matchByteArraysByContent() {
+        ClockStringFogCache cache = new ClockStringFogCache(1024);
+        cache.put(1, new byte[] {1, 2}, new byte[] {3}, "result-1");
+        assertEquals("result-1", cache.get(1, new byte[] {1, 2}, new byte[] {3}));
+        assertNull(cache.get(1, new byte[] {1, 2}, new byte[] {4}));
+    }
+
+    @Test
+    public void replaceSameId() {
+        ClockStringFogCache cache = new ClockStringFogCache(1024);
+        String oldValue = "old";
+        String newValue = "new";
+        cache.put(1, oldValue, KEY, "result-1");
+        cache.put(1, newValue, KEY, "result-2");
+        assertNull(cache.get(1, oldValue, KEY));
+        assertEquals("result-2", cache.get(1, newValue, KEY));
+        assertEquals(ENTRY_SIZE, cache.size());
+    }
+
+    @Test
+    public void keepCollidingEntries() {
+        // 16 slots, find an id probing the same slots as the id 0.
+        ClockStringFogCache cache = new ClockStringFogCache(ENTRY_SIZE * 10);
+        long other = 1;
+        while (slot(other, 16) != slot(0, 16)) {
+            other++;
+        }
+        String value = "value";
+        cache.put(0, value, KEY, result(0));
+        cache.put(other, value, KEY, result(1));
+        assertEquals(result(0), cache.get(0, value, KEY));
+        assertEquals(result(1), cache.get(other, value, KEY));
+        assertEquals(ENTRY_SIZE * 2, cache.size());
+    }
+
+    @Test
+    public void keepWithinBudget() {
+        ClockStringFogCache cache = new ClockStringFogCache(ENTRY_SIZE * 5);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, "value", KEY, result(i));
+            assertTrue(cache.size() <= ENTRY_SIZE * 5);
+        }
+        // An entry larger than the budget is never put.
+        cache.put(-1, "value", KEY, new String(new char[ENTRY_SIZE * 5]));
+        assertNull(cache.get(-1, "value", KEY));
+        assertTrue(cache.size() <= ENTRY_SIZE * 5);
+    }
+
+    @Test
+    public void keepWithinBudgetConcurrently() throws InterruptedException {
+        long maxSize = ENTRY_SIZE * 20;
+        ClockStringFogCache cache = new ClockStringFogCache(maxSize);
+        AtomicLong maxSeen = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int base = t * 100000;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 20000; i++) {
+                    cache.put(base + i, "value", KEY, result(i));
+                    cache.get(base + i / 2, "value", KEY);
+                    maxSeen.accumulateAndGet(cache.size(), Math::max);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("size " + maxSeen.get(), maxSeen.get() <= maxSize);
+        assertTrue(cache.size() <= maxSize);
+    }
+
+    @Test
+    public void giveNewAndReadEntriesSecondChance() {
+        // Room for 3 entries.
+        ClockStringFogCache cache = new ClockStringFogCache(ENTRY_SIZE * 3);
+        String value = "value";
+        for (int i = 0; i < 3; i++) {
+            cache.put(i, value, KEY, result(i));
+        }
+        // The sweep clears the flags of the 3 new entries and evicts one of them, the 2 others
+        // survive cold and the entry 3 is new.
+        cache.put(3, value, KEY, result(3));
+        assertEquals(ENTRY_SIZE * 3, cache.size());
+        // Read one of the survivors, the other one stays cold.
+        int read = cache.get(0, value, KEY) != null ? 0 : 1;
+        assertEquals(result(read), cache.get(read, value, KEY));
+        // The cold one is evicted, the read one and the new one get a second chance.
+        cache.put(4, value, KEY, result(4));
+        assertEquals(result(read), cache.get(read, value, KEY));
+        assertEquals(result(3), cache.get(3, value, KEY));
+        assertEquals(result(4), cache.get(4, value, KEY));
+        int hits = 0;
+        for (int i = 0; i < 3; i++) {
+            hits += cache.get(i, value, KEY) != null ? 1 : 0;
+        }
+        assertEquals(1, hits);
+    }
+
+    // The same hash as the cache spreads the ids with.
+    private static int slot(long id, int capacity) {
+        int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+
+    private static String result(int id) {
+        return String.format("result%02d", id % 100);
+    }
+
+}
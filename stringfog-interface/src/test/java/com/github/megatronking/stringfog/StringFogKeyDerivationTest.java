@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests of the key derivation. The plugin and the runtime of different versions must derive the
+ * same keys, so the derived bytes are pinned.
+ *
+ * @author Megatron King
+ * @since 2023/7/4 15:36
+ */
+public class StringFogKeyDerivationTest {
+
+    private static final byte[] MASTER_KEY = {
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16
+    };
+
+    @Test
+    public void pinDerivedKeys() {
+        assertEquals("2d3aeb05507e624854b9a321d2b35d28",
+                hex(StringFogKeyDerivation.derive(MASTER_KEY, 0)));
+        assertEquals("9a07ceff4672d067c275fd1d2407ee63",
+                hex(StringFogKeyDerivation.derive(MASTER_KEY, 0x123456789abcdef0L)));
+        assertEquals("f6b6daccbac51675701e9948c3621634",
+                hex(StringFogKeyDerivation.derive(MASTER_KEY, -1)));
+    }
+
+    @Test
+    public void deriveSameKeyForSameInput() {
+        assertArrayEquals(StringFogKeyDerivation.derive(MASTER_KEY, 42),
+                StringFogKeyDerivation.derive(MASTER_KEY.clone(), 42));
+        assertFalse(Arrays.equals(StringFogKeyDerivation.derive(MASTER_KEY, 42),
+                StringFogKeyDerivation.derive(MASTER_KEY, 43)));
+        byte[] masterKey = MASTER_KEY.clone();
+        masterKey[0]++;
+        assertFalse(Arrays.equals(StringFogKeyDerivation.derive(MASTER_KEY, 42),
+                StringFogKeyDerivation.derive(masterKey, 42)));
+    }
+
+    @Test
+    public void deriveIntoBuffer() {
+        byte[] buffer = new byte[MASTER_KEY.length + 4];
+        StringFogKeyDerivation.derive(MASTER_KEY, 42, buffer, 2);
+        assertArrayEquals(StringFogKeyDerivation.derive(MASTER_KEY, 42),
+                Arrays.copyOfRange(buffer, 2, 2 + MASTER_KEY.length));
+        assertEquals(0, buffer[0] | buffer[1] | buffer[buffer.length - 2]
+                | buffer[buffer.length - 1]);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017, Megatron King
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.github.megatronking.stringfog;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the prewarm on a fork/join pool and on a thread pool.
+ *
+ * @author Megatron King
+ * @since 2023/6/24 11:30
+ */
+public class StringFogPrewarmerTest {
+
+    private static final int ENTRY_COUNT = 1000;
+    // The chunk size of the prewarmer.
+    private static final int CHUNK_SIZE = 64;
+
+    private final ForkJoinPool mForkJoinPool = new ForkJoinPool(4);
+    private final ExecutorService mThreadPool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        mForkJoinPool.shutdownNow();
+        mThreadPool.shutdownNow();
+    }
+
+    @Test
+    public void decryptTablesOnForkJoinPool() throws InterruptedException {
+        decryptTables(mForkJoinPool);
+    }
+
+    @Test
+    public void decryptTablesOnThreadPool() throws InterruptedException {
+        decryptTables(mThreadPool);
+    }
+
+    @Test
+    public void throwFailureOnForkJoinPool() throws InterruptedException {
+        throwFailure(mForkJoinPool);
+    }
+
+    @Test
+    public void throwFailureOnThreadPool() throws InterruptedException {
+        throwFailure(mThreadPool);
+    }
+
+    @Test
+    public void throwClassInitFailure() throws InterruptedException {
+        StringFogPrewarmer prewarmer = new StringFogPrewarmer();
+        try {
+            prewarmer.prewarmAndWait(mThreadPool, getClass().getClassLoader(),
+                    new String[] {"missing.Class", BrokenClass.class.getName()});
+            fail();
+        } catch (ExceptionInInitializerError e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+    }
+
+    private static void decryptTables(ExecutorService executor) throws InterruptedException {
+        CountingStringFog stringFog = new CountingStringFog(-1);
+        StringFogPrewarmer prewarmer = new StringFogPrewarmer();
+        prewarmer.register(new StringFogTable(stringFog, table(ENTRY_COUNT)));
+        prewarmer.register(new StringFogTable(stringFog, table(10)));
+        prewarmer.register(new StringFogTable(stringFog, table(0)));
+        prewarmer.prewarmAndWait(executor, StringFogPrewarmerTest.class.getClassLoader(),
+                new String[0]);
+        // Every entry is decrypted once.
+        assertEquals(ENTRY_COUNT + 10, stringFog.mCount.get());
+    }
+
+    private static void throwFailure(ExecutorService executor) throws InterruptedException {
+        CountingStringFog stringFog = new CountingStringFog(ENTRY_COUNT / 2);
+        StringFogPrewarmer prewarmer = new StringFogPrewarmer();
+        prewarmer.register(new StringFogTable(stringFog, table(ENTRY_COUNT)));
+        try {
+            prewarmer.prewarmAndWait(executor, StringFogPrewarmerTest.class.getClassLoader(),
+                    new String[0]);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("entry" + ENTRY_COUNT / 2, e.getMessage());
+        }
+        // Only the rest of the failed chunk is skipped, the other chunks are still decrypted.
+        assertTrue("decrypted " + stringFog.mCount.get(),
+                stringFog.mCount.get() > ENTRY_COUNT - CHUNK_SIZE);
+    }
+
+    private static String table(int count) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeShort(output, count);
+        for (int i = 0; i < count; i++) {
+            byte[] value = ("entry" + i).getBytes(StandardCharsets.UTF_8);
+            writeShort(output, 1);
+            writeShort(output, value.length);
+            output.write(0);
+            output.write(value, 0, value.length);
+        }
+        return new String(Base64.encode(output.toByteArray(), Base64.NO_WRAP), StandardCharsets.US_ASCII);
+    }
+
+    private static void writeShort(ByteArrayOutputStream output, int value) {
+        output.write(value >>> 8);
+        output.write(value);
+    }
+
+    /**
+     * Returns the data as is, and fails on an entry.
+     */
+    private static final class CountingStringFog implements IStringFog {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+        private final int mFailedIndex;
+
+        CountingStringFog(int failedIndex) {
+            mFailedIndex = failedIndex;
+        }
+
+        @Override
+        public byte[] encrypt(String data, byte[] key) {
+            return data.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decrypt(byte[] data, byte[] key) {
+            String value = new String(data, StandardCharsets.UTF_8);
+            if (value.equals("entry" + mFailedIndex)) {
+                throw new IllegalStateException(value);
+            }
+            mCount.incrementAndGet();
+            return value;
+        }
+
+        @Override
+        public boolean shouldFog(String data) {
+            return true;
+        }
+
+    }
+
+    static final class BrokenClass {
+
+        static {
+            if (true) {
+                throw new IllegalStateException("broken");
+            }
+        }
+
+    }
+
+}